@@ -1,6 +1,7 @@
 package zzx;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.HashMap;
@@ -57,20 +58,18 @@ public class Config {
     	return isDataBuny(buny) || isData1Buny(buny);
     }
     
-	public static final long dataBunyOriginalLength = 6980514369L;
 	public static boolean isDataBuny(BunyStruct buny) throws IOException {
-    	return  buny.getTocOffset() == 80L			&&
-    			buny.getTocSize()   == 712680L		&&
-    			buny.getLength() 	>= dataBunyOriginalLength;	
+    	return getTocBackup(false).matches(buny);
     }
     
-	public static final long data1BunyOriginalLength = 86528129L;
 	public static boolean isData1Buny(BunyStruct buny) throws IOException {
-    	return  buny.getTocOffset() == 80L			&&
-    			buny.getTocSize()   == 9800L		&&
-    			buny.getLength() 	>= data1BunyOriginalLength;	
+    	return getTocBackup(true).matches(buny);
     }
     
+	public static long getOriginalLength(boolean isData1) throws IOException {
+		return getTocBackup(isData1).getArchiveLength();
+	}
+    
 	public static FileTree<FileInside> searchAllModifiedFile(BunyStruct buny, boolean isData1) throws IOException {
     	FileTree<FileInside> result = new FileTree<>(isData1 ? "data_1.buny" : "data.buny");
     	for (FileInside file : buny.getAllFiles()) {
@@ -81,20 +80,57 @@ public class Config {
     	return result;
     }
 	
-	public static boolean isModified(FileInside file, boolean isData1) {
-    	return file.getOffset() >= (isData1 ? data1BunyOriginalLength : dataBunyOriginalLength);
+	public static boolean isModified(FileInside file, boolean isData1) throws IOException {
+    	return file.getOffset() >= getOriginalLength(isData1);
     }
+	
+	private static final TocBackup[] tocBackups = new TocBackup[2];
     
-	public static TocBackup getTocBackup(boolean isData1) {
+	/*
+	 * A snapshot placed next to the game (see --snapshot-toc) takes precedence over the bundled one,
+	 * so a game update only needs a new snapshot instead of a new release.
+	 */
+	public static TocBackup getTocBackup(boolean isData1) throws IOException {
+		int slot = isData1 ? 1 : 0;
+		if (tocBackups[slot] != null) {
+			return tocBackups[slot];
+		}
+		
     	String resourcesName = isData1 ? data1TocBackupFileName : dataTocBackupFileName;
-		InputStream in = Start.class.getClassLoader().getResourceAsStream(resourcesName);
+    	String overridePath = resolveOptionalPath(resourcesName);
+    	
+    	InputStream in = overridePath != null
+    			? new FileInputStream(overridePath)
+    			: Start.class.getClassLoader().getResourceAsStream(resourcesName);
 		if (in == null) {
-			throw new RuntimeException("Resource file (" + dataTocBackupFileName + 
+			throw new RuntimeException("Resource file (" + resourcesName + 
 				") could not be found");
 		}
-		return new TocBackup(in);
+		try {
+			tocBackups[slot] = new TocBackup(in);
+		} finally {
+			in.close();
+		}
+		return tocBackups[slot];
     }
 	
+	// --verify --quick hashes the header of one in every QUICK_VERIFY_STRIDE compressed files
+	public static final int QUICK_VERIFY_STRIDE = 64;
+	
+	// Rebuilt level .fsb/.flo files are cached in this directory next to data.buny (see RebuildCache)
+	public static final String REBUILD_CACHE_DIR_NAME = "BunyUtilCache";
+	// When the cache holds more files than this, the least recently used ones are deleted
+	public static final int REBUILD_CACHE_MAX_FILES = 64;
+	
+	// At most this many mod (or --combine input) .fsb/.bank files are kept open at once (see Fsb5ReaderPool)
+	public static final int SOUND_FILES_MAX_OPEN = 128;
+	
+	// --plan estimates the time --modify takes with this disk speed (bytes per second)
+	public static final long PLAN_DISK_SPEED = 150L << 20;
+	
+	// --modify and --reset only draw the tree of the files they process up to this many files
+	public static final int TREE_VIEW_MAX_FILES = 5000;
+	
 	public static final String USAGE =
 		    "Usage: BunyUtil.exe [option] <arguments>\n\n" +
 		    "Options:\n" +
@@ -105,12 +141,45 @@ public class Config {
 		    "  -m, --modify [modPath]\n" +
 		    "      Apply a mod to the .buny archive by replacing existing resources.\n" +
 		    "      If [modPath] is specified, only that mod will be used. Otherwise, all mods in the 'mods' directory\n" +
-		    "      will be automatically applied.\n\n" +
+		    "      will be automatically applied.\n" +
+		    "      A mod can be a folder or a .zip file (which doesn't need to be extracted).\n\n" +
+		    
+		    "  --plan [modPath]\n" +
+		    "      Show what --modify would do with the same mods, without writing anything: the files to\n" +
+		    "      redirect, the level sounds to rebuild, the bytes to append to each archive, their final size\n" +
+		    "      and an estimate of the time it would take.\n\n" +
 		    
 		    "  -r, --reset [bunyFilePath]\n" +
 		    "      Revert all changes previously made by the --modify operation to the specified .buny archive.\n" +
 		    "      If [bunyFilePath] is omitted, both data.buny and data_1.buny will be reset.\n\n" +
 		    
+		    "  --snapshot-toc <bunyFilePath> <outputFile>\n" +
+		    "      Save a compact snapshot of the TOC of a pristine .buny archive, used later by --reset.\n" +
+		    "      Place it next to the game as " + dataTocBackupFileName + " or " + data1TocBackupFileName + "\n" +
+		    "      to support a game version newer than this program.\n\n" +
+		    
+		    "  --manifest <bunyFilePath> <outputFile>\n" +
+		    "      Hash every file of the .buny archive and save the checksums as a reference manifest.\n\n" +
+		    
+		    "  --verify <bunyFilePath> <manifestFile> [--quick]\n" +
+		    "      Compare the .buny archive against a manifest and report modified or corrupted files.\n" +
+		    "      With --quick, only the TOC and a sample of compressed file headers are hashed.\n\n" +
+		    
+		    "  --diff <oldBunyFilePath> <newBunyFilePath> [outputFile] [--content]\n" +
+		    "      List the files added, removed, resized or relocated between two .buny archives,\n" +
+		    "      as tab-separated lines (written to [outputFile] if given).\n" +
+		    "      With --content, same-size files are hashed in both archives to find changed contents.\n\n" +
+		    
+		    "  --make-patch <pristineBunyFilePath> <moddedBunyFilePath> <patchFile>\n" +
+		    "      Save the changes made by --modify to a pristine archive as a small patch file.\n\n" +
+		    
+		    "  --compile-mod <pristineBunyFilePath> <modPath> <patchFile>\n" +
+		    "      Precompile a mod (folder or .zip) for the given pristine archive into a patch file, which\n" +
+		    "      --apply-patch then applies in one go. The archive is left unchanged.\n\n" +
+		    
+		    "  --apply-patch [bunyFilePath] <patchFile>\n" +
+		    "      Apply a patch file to a pristine archive (data.buny if [bunyFilePath] is omitted).\n\n" +
+		    
 		    "  -s, --split <audioFile> <outputPath>\n" +
 		    "      Split a multi-audio .fsb/.bank file into individual .fsb files (each containing one audio).\n" +
 		    "      Output files will be saved to the specified directory with their original names or indices.\n" +
@@ -129,8 +198,15 @@ public class Config {
 		    "  BunyUtil.exe --extract .\\data.buny .\\extracted\\ data/actors/ats\n" +
 		    "  BunyUtil.exe --modify .\\mods\\my_mod\\\n" +
 		    "  BunyUtil.exe --modify\n" +
+		    "  BunyUtil.exe --plan .\\mods\\my_mod\\\n" +
 		    "  BunyUtil.exe --reset .\\data.buny\n" +
 		    "  BunyUtil.exe --reset\n" +
+		    "  BunyUtil.exe --snapshot-toc .\\data.buny .\\dataTocBackup.dat\n" +
+		    "  BunyUtil.exe --verify .\\data.buny .\\data.manifest --quick\n" +
+		    "  BunyUtil.exe --diff .\\old\\data.buny .\\data.buny .\\changes.tsv --content\n" +
+		    "  BunyUtil.exe --make-patch .\\backup\\data.buny .\\data.buny .\\my_mod.patch\n" +
+		    "  BunyUtil.exe --compile-mod .\\data.buny .\\mods\\my_mod\\ .\\my_mod.patch\n" +
+		    "  BunyUtil.exe --apply-patch .\\my_mod.patch\n" +
 		    "  BunyUtil.exe --split .\\audio.bank .\\split_audios\\\n" +
 		    "  BunyUtil.exe --combine .\\combined.fsb .\\audio1.fsb .\\audio2.bank .\\audio3.fsb\n";
 	
@@ -164,4 +240,19 @@ public class Config {
         throw new IllegalUsageException("Missing file: " + primaryPath + 
         		 	". Please run the program from the game root or a subdirectory.");
     }
+    
+    // Same lookup as resolvePath, but returns null instead of failing
+    private static String resolveOptionalPath(String primaryPath) {
+    	File primary = new File(primaryPath);
+        if (primary.isFile()) {
+            return primary.getPath();
+        }
+
+        File fallback = new File(".." + File.separator + primaryPath);
+        if (fallback.isFile()) {
+            return fallback.getPath();
+        }
+        
+        return null;
+    }
 }
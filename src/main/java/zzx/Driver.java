@@ -1,29 +1,51 @@
 package zzx;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 import zzx.Mod.SoundFile;
 import zzx.buny.BunyStruct;
+import zzx.buny.ArchiveDiff;
+import zzx.buny.ArchiveHasher;
+import zzx.buny.ArchiveJournal;
+import zzx.buny.ArchivePatch;
 import zzx.buny.FileInside;
+import zzx.buny.Manifest;
 import zzx.buny.TocBackup;
-import zzx.buny.TocBackup.Item;
 import zzx.fsb5.Chunk;
 import zzx.fsb5.Fsb5Builder;
 import zzx.fsb5.Fsb5Reader;
+import zzx.fsb5.Fsb5ReaderPool;
 import zzx.fsb5.Sound;
 import zzx.fsb5.SoundFromFsb;
 import zzx.utils.FileTree;
 import zzx.utils.IllegalUsageException;
 import zzx.utils.LERandomAccessFile;
+import zzx.utils.Parallel;
 import zzx.utils.ProgressBar;
+import zzx.utils.ZipDirectory;
 
 import static zzx.Config.*;
 
@@ -89,83 +111,520 @@ public class Driver {
 
         println("Starting reset for \'" + targetName + "\'...");
 
+        // Bytes patched in place (or the TOC of an interrupted --compile-mod) aren't visible in the TOC, put them back first
+        String journalName = ArchiveJournal.journalFileOf(buny).getName();
+        int restored = ArchiveJournal.restore(buny);
+        if (restored > 0) {
+            println("Restored " + restored + " regions saved in " + journalName + ".");
+        }
+
         FileTree<FileInside> modifiedFiles = searchAllModifiedFile(buny, isData1);
         if (modifiedFiles.size() == 0) {
-            println("No modified files found - nothing to reset.");
+            println(restored > 0 ? "\nReset completed." : "No modified files found - nothing to reset.");
             return;
         }
         println("Located " + modifiedFiles.size() + " modified files to reset.");
 
         TocBackup tocBackup = getTocBackup(isData1);
 
-        Iterator<Entry<String, FileInside>> iterator = modifiedFiles.printingIterator();
+        Iterator<Entry<String, FileInside>> iterator = modifiedFiles.sortedIterator();
         int i = 0;
         while (iterator.hasNext()) {
         	FileInside file = iterator.next().getValue();
         	
-            Item item = tocBackup.get(file.getIndex());
-            file.redirectTo(item.offset, item.zsize, item.size);
+            int index = file.getIndex();
+            file.redirectTo(tocBackup.getOffset(index), tocBackup.getZsize(index), tocBackup.getSize(index));
             
-            print(" -> resetted");
             i++;
         }
+        printTree(modifiedFiles, entry -> " -> resetted");
 
-        buny.setNewLength(isData1 ? data1BunyOriginalLength : dataBunyOriginalLength);
+        buny.setNewLength(tocBackup.getArchiveLength());
 
         println("\nReset completed. " + i + " files were reset.");
     }
 	
+	public static void snapshotToc(BunyStruct buny, String outputFile) throws IOException {
+		println("Taking a TOC snapshot of " + buny.getFileCount() + " files...");
+		
+		int count;
+		try (OutputStream out = new FileOutputStream(outputFile)) {
+			count = TocBackup.snapshot(buny, out);
+		}
+		
+		println("Saved " + count + " entries (" + humanReadableByteCount(new File(outputFile).length()) +
+				") to " + outputFile);
+		println("Note: the snapshot is only useful if the archive has never been modified.");
+	}
+	
+	public static void writeManifest(BunyStruct buny, String outputFile) throws IOException {
+		println("Hashing " + buny.getFileCount() + " files...");
+		long start = System.currentTimeMillis();
+		
+		Manifest manifest = Manifest.create(buny);
+		manifest.writeTo(new File(outputFile));
+		
+		println(String.format("Saved the manifest to %s (%.2f seconds)",
+				outputFile, (System.currentTimeMillis() - start) / 1000.0));
+	}
+	
+	public static void verify(BunyStruct buny, String manifestFile, boolean quick) throws IOException {
+		Manifest manifest = Manifest.read(new File(manifestFile));
+		if (manifest.getTocOffset() != buny.getTocOffset() || manifest.getTocSize() != buny.getTocSize()) {
+			throw new IllegalUsageException(
+				"The manifest doesn't describe this archive (different TOC offset or size)");
+		}
+		
+		long start = System.currentTimeMillis();
+		
+		// 1. TOC entries which no longer point to the original bytes
+		List<Integer> modified = new ArrayList<>();
+		for (int i = 0; i < manifest.size(); i++) {
+			if (!manifest.sameTocEntry(i, buny.getFile(i))) {
+				modified.add(i);
+			}
+		}
+		
+		// 2. original bytes which are damaged, checked at the offsets recorded in the manifest
+		List<Integer> corrupted = new ArrayList<>();
+		if (buny.getLength() < manifest.getArchiveLength()) {
+			println("The archive is shorter than expected: " + buny.getLength() +
+					" < " + manifest.getArchiveLength() + " bytes");
+		}
+		
+		List<Integer> toHash = new ArrayList<>();
+		boolean tocCorrupted = false;
+		if (quick) {
+			int tocCrc = ArchiveHasher.hashToc(buny);
+			println("TOC checksum    : " + Manifest.hex(tocCrc) +
+					(tocCrc == manifest.getTocCrc() ? " (matches)" : " (expected " + Manifest.hex(manifest.getTocCrc()) + ")"));
+			
+			// A mismatch is expected from redirected entries, not once they are put back
+			if (tocCrc != manifest.getTocCrc()) {
+				tocCorrupted = manifest.hashTocAsRecorded(buny) != manifest.getTocCrc();
+				println(tocCorrupted ? "The TOC is damaged beyond the redirected entries"
+									 : "The TOC only differs by the redirected entries");
+			}
+			
+			// Only a sample of the compressed file headers
+			int compressed = 0;
+			for (int i = 0; i < manifest.size(); i++) {
+				if (manifest.isCompressed(i) && compressed++ % QUICK_VERIFY_STRIDE == 0) {
+					toHash.add(i);
+				}
+			}
+		} else {
+			for (int i = 0; i < manifest.size(); i++) {
+				toHash.add(i);
+			}
+		}
+		
+		int[] indices = new int[toHash.size()];
+		for (int i = 0; i < indices.length; i++) {
+			indices[i] = toHash.get(i);
+		}
+		
+		// Anything beyond the end of a truncated archive is lost for sure
+		int hashable = 0;
+		for (int index : indices) {
+			if (manifest.getOffset(index) + manifest.getZsize(index) <= buny.getLength()) {
+				indices[hashable++] = index;
+			} else {
+				corrupted.add(index);
+			}
+		}
+		indices = Arrays.copyOf(indices, hashable);
+		
+		int[] crcs = quick ? manifest.hashHeaders(buny, indices) : manifest.hashStoredBytes(buny, indices);
+		for (int i = 0; i < indices.length; i++) {
+			int expected = quick ? manifest.getHeaderCrc(indices[i]) : manifest.getCrc(indices[i]);
+			if (crcs[i] != expected) {
+				corrupted.add(indices[i]);
+			}
+		}
+		corrupted.sort(null);
+		
+		if (ArchiveJournal.patchedInPlace(buny)) {
+			println("Note: some files were patched in place by --modify (see " +
+					ArchiveJournal.journalFileOf(buny).getName() + "), they are reported as corrupted.");
+		}
+		
+		// Report
+		for (int index : modified) {
+			println("  modified  [" + index + "] " + manifest.getName(index));
+		}
+		for (int index : corrupted) {
+			println("  corrupted [" + index + "] " + manifest.getName(index));
+		}
+		
+		println();
+		println((quick ? "Checked the TOC and " + indices.length + " sampled headers" : "Checked " + indices.length + " files") +
+				String.format(" in %.2f seconds", (System.currentTimeMillis() - start) / 1000.0));
+		if (tocCorrupted) {
+			println("Result: CORRUPTED (TOC damaged, " + corrupted.size() + " damaged, " + modified.size() + " modified)");
+		} else if (!corrupted.isEmpty()) {
+			println("Result: CORRUPTED (" + corrupted.size() + " damaged, " + modified.size() + " modified)");
+		} else if (!modified.isEmpty()) {
+			println("Result: MODIFIED (" + modified.size() + " files redirected, original data intact)");
+		} else {
+			println("Result: PRISTINE");
+		}
+	}
+	
+	/*
+	 * The differences are written as tab-separated lines (one per file, unchanged files omitted):
+	 *   status	name	oldIndex	newIndex	oldOffset	newOffset	oldZsize	newZsize	oldSize	newSize
+	 * Fields of the missing side of an ADDED/REMOVED file are "-".
+	 */
+	public static void diff(BunyStruct oldBuny, BunyStruct newBuny, String outputFile, boolean checkContent) throws IOException {
+		long start = System.currentTimeMillis();
+		ArchiveDiff diff = ArchiveDiff.compute(oldBuny, newBuny, checkContent);
+		
+		StringBuilder sb = new StringBuilder();
+		sb.append("#status\tname\toldIndex\tnewIndex\toldOffset\tnewOffset\toldZsize\tnewZsize\toldSize\tnewSize\n");
+		for (ArchiveDiff.Entry entry : diff.getEntries()) {
+			FileInside a = entry.oldFile;
+			FileInside b = entry.newFile;
+			sb.append(entry.status.name().toLowerCase()).append('\t')
+			  .append(entry.getName()).append('\t')
+			  .append(a == null ? "-" : a.getIndex()).append('\t')
+			  .append(b == null ? "-" : b.getIndex()).append('\t')
+			  .append(a == null ? "-" : a.getOffset()).append('\t')
+			  .append(b == null ? "-" : b.getOffset()).append('\t')
+			  .append(a == null ? "-" : a.getZsize()).append('\t')
+			  .append(b == null ? "-" : b.getZsize()).append('\t')
+			  .append(a == null ? "-" : a.getSize()).append('\t')
+			  .append(b == null ? "-" : b.getSize()).append('\n');
+		}
+		
+		if (outputFile != null) {
+			try (Writer writer = new BufferedWriter(new FileWriter(outputFile))) {
+				writer.write(sb.toString());
+			}
+		} else {
+			print(sb.toString());
+		}
+		
+		println();
+		println("=== Diff Summary ===");
+		for (ArchiveDiff.Status status : ArchiveDiff.Status.values()) {
+			if (status != ArchiveDiff.Status.CHANGED || checkContent) {
+				println(String.format("%-10s: %d", status.name().toLowerCase(), diff.count(status)));
+			}
+		}
+		if (checkContent) {
+			println("Hashed " + diff.getComparedCount() + " same-size files in both archives");
+		}
+		println(String.format("Finished in %.2f seconds", (System.currentTimeMillis() - start) / 1000.0));
+		if (outputFile != null) {
+			println("Saved the differences to " + outputFile);
+		}
+	}
+	
+	public static void makePatch(BunyStruct base, BunyStruct modded, String patchFile) throws IOException {
+		println("Comparing the TOC of the two archives...");
+		int count = ArchivePatch.create(base, modded, new File(patchFile));
+		println("Saved " + count + " changed files (" + humanReadableByteCount(new File(patchFile).length()) +
+				") to " + patchFile);
+	}
+	
+	public static void applyPatch(BunyStruct buny, String patchFile) throws IOException {
+		println("Applying " + patchFile + " (" + humanReadableByteCount(new File(patchFile).length()) + ")...");
+		int count = ArchivePatch.apply(buny, new File(patchFile));
+		println("Successfully redirected " + count + " files.");
+	}
+	
+	/*
+	 * Applies the mod to the archive (only the part meant for it: data/ and the sounds for data.buny,
+	 * data1/ for data_1.buny) and saves the result as a patch, which --apply-patch applies with one
+	 * transfer and one TOC write. The archive itself is left as it was.
+	 */
+	public static void compileMod(BunyStruct buny, String modPath, String bundleFile) throws IOException {
+		boolean isData1 = isData1Buny(buny);
+		if (ArchiveJournal.exists(buny) || searchAllModifiedFile(buny, isData1).size() > 0) {
+			throw new IllegalUsageException(
+				"A mod can only be compiled against a pristine archive. " +
+				"If it has been modified, please reset it first.");
+		}
+		
+		try (Mod mod = new Mod(new File(modPath))) {
+			println("Compiling mod " + mod.getName() + " for " + buny.getArchiveFile().getName() + "...");
+			ModOverlay overlay = new ModOverlay(Collections.singletonList(mod));
+			int count = ArchivePatch.compile(buny, archive -> {
+				if (isData1) {
+					if (mod.getData1Files().size() > 0) {
+						print(replaceNormalFiles(archive, mod, true, overlay));
+					}
+					return;
+				}
+				if (mod.getDataFiles().size() > 0) {
+					print(replaceNormalFiles(archive, mod, false, overlay));
+				}
+				SoundModifier soundModifier = new SoundModifier(archive);
+				soundModifier.setPatchInPlace(false);
+				removeSoundEvent(soundModifier, mod);
+				replaceSoundFiles(soundModifier, mod, overlay);
+				if (soundModifier.needWriteBack()) {
+					println();
+					soundModifier.writeBackWithPrint();
+				}
+			}, new File(bundleFile));
+			
+			println("\nSaved " + count + " changed files (" + humanReadableByteCount(new File(bundleFile).length()) +
+					") to " + bundleFile + ", apply it with --apply-patch.");
+		}
+	}
+	
 	public static void modify(BunyStruct dataBuny, BunyStruct data1Buny, String modsPath) throws IOException {
+		File[] modDirs = listMods(modsPath);
+		if (modDirs.length > 0) {
+			modify(dataBuny, data1Buny, modDirs);
+		}
+	}
+	
+	// @return the mods of the folder in loading order (by name), none if it has none
+	private static File[] listMods(String modsPath) throws IOException {
 		File modsDir = new File(modsPath);
 	    if (!modsDir.exists() || !modsDir.isDirectory()) {
 	        throw new IOException("Invalid mods directory: " + modsPath);
 	    }
 
-	    File[] modDirs = modsDir.listFiles(File::isDirectory);
+	    // Mod folders, or mods still packed in .zip files
+	    File[] modDirs = modsDir.listFiles(file -> file.isDirectory() || ZipDirectory.isZipFile(file));
 	    if (modDirs == null || modDirs.length == 0) {
 	        println("No mods found in directory: " + modsPath);
-	        return;
+	        return new File[0];
 	    }
 	    
 	    Arrays.sort(modDirs, Comparator.comparing(File::getName));
-	    
-	    modify(dataBuny, data1Buny, modDirs);
+	    return modDirs;
 	}
 	
-	public static void modify(BunyStruct dataBuny, BunyStruct data1Buny, File... modDirs) throws IOException {
-		
-	    List<Mod> mods = new ArrayList<>();
+	private static List<Mod> scanMods(File... modDirs) throws IOException {
+	    // Scanning the mod folders is independent from one mod to another
+	    List<Callable<Mod>> scans = new ArrayList<>();
 	    for (File modDir : modDirs) {
-		    mods.add(new Mod(modDir));
+		    scans.add(() -> new Mod(modDir));
 		}
+	    return Parallel.invokeAll(scans);
+	}
+	
+	public static void modify(BunyStruct dataBuny, BunyStruct data1Buny, File... modDirs) throws IOException {
+	    List<Mod> mods = scanMods(modDirs);
+	    
+	    // Resolved before anything is written, so that an overridden file or sound is never appended
+	    ModOverlay overlay = new ModOverlay(mods);
+	    printConflicts(overlay);
 	    
 	    SoundModifier soundModifier = new SoundModifier(dataBuny);
 	    
+	    /*
+	     * The two archives have nothing in common, so data_1.buny gets a writer thread of its own,
+	     * with one job per mod (run in loading order, so it is written exactly as it would be here),
+	     * while this thread writes data.buny and rebuilds the level sounds.
+	     * A failed job stops everything like a failure here would: finished jobs are checked for
+	     * failures between mods and once more before the rebuild, and all of them are joined after it.
+	     * Their reports are printed at the end, still in loading order.
+	     */
+	    ExecutorService data1Writer = Executors.newSingleThreadExecutor();
+	    List<Future<String>> data1Reports = new ArrayList<>();
+	    try {
+		    for (Mod mod : mods) {
+		    	data1Reports.add(data1Writer.submit(() -> mod.getData1Files().size() > 0
+		    			? replaceNormalFiles(data1Buny, mod, true, overlay) : null));
+		    }
+	    	
+			int modCount = 0;
+			for (Mod mod : mods) {
+				checkFinished(data1Reports);
+				
+				println();
+				println("[" + (modCount++) + "]Start loading mod: " + mod.getName());
+				
+				if (mod.getDataFiles().size() > 0) {
+					print(replaceNormalFiles(dataBuny, mod, false, overlay));
+				}
+				if (mod.getData1Files().size() > 0) {
+					println("  " + mod.getData1Files().size() + " files for data_1.buny (see below)");
+				}
+				if (mod.getDataFiles().size() <= 0 && mod.getData1Files().size() <= 0) {
+					println("  This mod doesn't appear to contain any sound-unrelated files");
+				}
+				
+				removeSoundEvent(soundModifier, mod);
+				replaceSoundFiles(soundModifier, mod, overlay);
+				
+				println("\nSuccessfully loaded mod: " + mod.getName());
+			}
+			
+			checkFinished(data1Reports);
+			if (soundModifier.needWriteBack()) {
+				println();
+				soundModifier.writeBackWithPrint();
+			}
+			
+			for (int i = 0; i < mods.size(); i++) {
+				String report = Parallel.await(data1Reports.get(i));
+				if (report != null) {
+					println();
+					println("[" + i + "]data_1.buny files of mod: " + mods.get(i).getName());
+					print(report);
+				}
+			}
+		    
+			println("\nSuccessfully loaded " + modCount + " mod(s).");
+	    } finally {
+	    	// After a failure, the job being written is finished, but the next ones don't start
+	    	for (Future<String> report : data1Reports) {
+	    		report.cancel(false);
+	    	}
+	    	data1Writer.shutdown();
+	    	awaitTermination(data1Writer);
+	    	
+			for (Mod mod : mods) {
+				mod.close();
+			}
+	    }
+	}
+	
+	// Rethrows the failure of a job which is already done, without waiting for the others
+	private static void checkFinished(List<? extends Future<?>> jobs) throws IOException {
+		for (Future<?> job : jobs) {
+			if (!job.isDone()) {
+				break;	// the jobs run in order
+			}
+			Parallel.await(job);
+		}
+	}
+	
+	private static void awaitTermination(ExecutorService executor) throws IOException {
+		try {
+			while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+				// still writing
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for a writer thread", e);
+		}
+	}
+
+	public static void plan(BunyStruct dataBuny, BunyStruct data1Buny, String modsPath) throws IOException {
+		File[] modDirs = listMods(modsPath);
+		if (modDirs.length > 0) {
+			plan(dataBuny, data1Buny, modDirs);
+		}
+	}
+	
+	/*
+	 * Does every lookup --modify would do (files in the TOC, events in the .flo files, layout of the
+	 * rebuilt .fsb files), but nothing is written: only the mod catalogues, the TOC, the .fsb tables
+	 * and the .flo files are read. Reports what would be written and how large the archives would get.
+	 */
+	public static void plan(BunyStruct dataBuny, BunyStruct data1Buny, File... modDirs) throws IOException {
+		List<Mod> mods = scanMods(modDirs);
+		println("Planning the modification with " + mods.size() + " mod(s), nothing will be written.");
+		
+		ModOverlay overlay = new ModOverlay(mods);
+		printConflicts(overlay);
+		
+		WriteEstimate dataEstimate = new WriteEstimate();
+		WriteEstimate data1Estimate = new WriteEstimate();
+		SoundModifier soundModifier = new SoundModifier(dataBuny, false);
+		
 		int modCount = 0;
 		for (Mod mod : mods) {
 			println();
-			println("[" + (modCount++) + "]Start loading mod: " + mod.getName());
+			println("[" + (modCount++) + "]Mod: " + mod.getName());
 			
-			replaceNormalFiles(dataBuny, data1Buny, mod);
+			planNormalFiles(dataBuny, mod, false, overlay, dataEstimate);
+			planNormalFiles(data1Buny, mod, true, overlay, data1Estimate);
 			
 			removeSoundEvent(soundModifier, mod);
-			replaceSoundFiles(soundModifier, mod);
-			
-			println("\nSuccessfully loaded mod: " + mod.getName());
+			replaceSoundFiles(soundModifier, mod, overlay);
 		}
 		
 		if (soundModifier.needWriteBack()) {
-			println();
-			soundModifier.writeBackWithPrint();
+			println("\nLevel sounds to write back:");
+			soundModifier.planWriteBackWithPrint(dataEstimate);
 		}
 		
 		for (Mod mod : mods) {
 			mod.close();
 		}
-	    
-		println("\nSuccessfully loaded " + modCount + " mod(s).");
+		
+		println("\n=== Plan ===");
+		long written = 0;
+		for (BunyStruct buny : new BunyStruct[] {dataBuny, data1Buny}) {
+			WriteEstimate estimate = buny == dataBuny ? dataEstimate : data1Estimate;
+			long length = buny.getLength();
+			long newLength = length + estimate.getAppended();
+			
+			String name = isData1Buny(buny) ? "data_1.buny" : "data.buny";
+			println(name + ":");
+			println("  Entries to redirect : " + estimate.getRedirected());
+			println("  Bytes to append     : " + humanReadableByteCount(estimate.getAppended()) +
+					" (" + estimate.getAppended() + " bytes)" +
+					(estimate.getOverwritten() > 0
+						? " (+ " + humanReadableByteCount(estimate.getOverwritten()) + " overwritten in place)" : ""));
+			println("  Final size          : " + humanReadableByteCount(length) + " -> " + humanReadableByteCount(newLength));
+			if (canReset(buny) && getOriginalLength(isData1Buny(buny)) != length) {
+				println("  Final size after -rm: about " +
+						humanReadableByteCount(getOriginalLength(isData1Buny(buny)) + estimate.getAppended()));
+			}
+			written += estimate.getAppended() + estimate.getOverwritten();
+		}
+		
+		// What is written is about as much as what is read (mod files, original sounds)
+		long seconds = Math.max(1, Math.round(2.0 * written / PLAN_DISK_SPEED));
+		println("\nEstimated I/O: " + humanReadableByteCount(written) + " read, " + humanReadableByteCount(written) +
+				" written, about " + seconds + " s (at " + humanReadableByteCount(PLAN_DISK_SPEED) + "/s)");
+		
+		List<String> problems = new ArrayList<>(dataEstimate.getProblems());
+		problems.addAll(data1Estimate.getProblems());
+		if (!problems.isEmpty()) {
+			println("\n--modify would fail on:");
+			for (String problem : problems) {
+				println("  " + problem);
+			}
+		}
 	}
-
+	
+	private static void planNormalFiles(BunyStruct buny, Mod mod, boolean isData1, ModOverlay overlay,
+			WriteEstimate estimate) throws IOException {
+		FileTree<File> files = isData1 ? mod.getData1Files() : mod.getDataFiles();
+		if (files.size() <= 0) {
+			return;
+		}
+		
+		int redirected = 0;
+		int skipped = 0;
+		int overridden = 0;
+		long appended = 0;
+		for (Entry<String, File> entry : files.entrySet()) {
+			String name = entry.getKey().substring(isData1 ? "data1/".length() : "data/".length());
+			
+			if (!overlay.wins(mod, entry.getKey())) {
+				overridden++;
+			} else if (!buny.containFile(name)) {
+				skipped++;
+			} else {
+				long size = buny.getFile(name).getRedirectSize(entry.getValue().length());
+				if (size < 0) {
+					estimate.addProblem(entry.getKey() + " (" + humanReadableByteCount(entry.getValue().length()) +
+							") is too large to replace a compressed file");
+					continue;
+				}
+				estimate.addRedirect(size);
+				appended += size;
+				redirected++;
+			}
+		}
+		print("  " + (isData1 ? "data_1.buny" : "data.buny") + ": " + redirected + " files to redirect (" +
+				humanReadableByteCount(appended) + ")");
+		print(skipped <= 0 ? "" : ";  " + skipped + " files skipped");
+		println(overridden <= 0 ? "." : ";  " + overridden + " files overridden by later mods.");
+	}
+	
 	public static void split(String fsbFile, String outputPath) throws IOException {
 		try (Fsb5Reader fsb = new Fsb5Reader(fsbFile)) {
 			println("=== Fsb5 Header Info ===");
@@ -178,7 +637,11 @@ public class Driver {
 			println("Codec            : " + fsb.getCodec());
 			println();
 
-			int count = 0;
+			/*
+			 * The sounds are written concurrently. They all read their data from the same open
+			 * file, which is fine since transfers only use positional reads.
+			 */
+			List<Callable<Void>> tasks = new ArrayList<>();
 			for (SoundFromFsb sound : fsb.getAllSounds()) {
 				println(sound.toString());
 				for (Chunk chunk : sound.getAllChunks()) {
@@ -193,23 +656,35 @@ public class Driver {
 
 				String outputFsbPath = Paths.get(outputPath, name + ".fsb").toString();
 
-				Fsb5Builder builder = new Fsb5Builder();
-				builder.addSound(sound);
-				builder.buildTo(outputFsbPath);
-
-				count++;
+				tasks.add(() -> {
+					Fsb5Builder builder = new Fsb5Builder();
+					builder.addSound(sound);
+					builder.buildTo(outputFsbPath);
+					return null;
+				});
 			}
+			Parallel.invokeAll(tasks);
 
-			println("Successfully split " + count + " sound(s) from " + fsbFile);
+			println("Successfully split " + tasks.size() + " sound(s) from " + fsbFile);
 		}
 	}
 	
+	/*
+	 * Two passes: the tables of all inputs are read first, which gives the whole layout of the
+	 * output, then the data of each input is streamed into it in order (the data of the sounds
+	 * of one input is contiguous, so it is copied with a single transfer).
+	 * The inputs must stay readable until then, but only a bounded number of them is kept open.
+	 */
 	public static void combine(String outputFsbFile, String... inputFsbFiles) throws IOException {
 		Fsb5Builder builder = new Fsb5Builder();
+		Fsb5ReaderPool pool = new Fsb5ReaderPool(SOUND_FILES_MAX_OPEN);
+		List<Fsb5Reader> readers = new ArrayList<>();
 		int count = 0;
 
-		for (String fsbFile : inputFsbFiles) {
-			try (Fsb5Reader fsb = new Fsb5Reader(fsbFile)) {
+		try {
+			for (String fsbFile : inputFsbFiles) {
+				Fsb5Reader fsb = new Fsb5Reader(new File(fsbFile), pool);
+				readers.add(fsb);
 				println("=== " + fsbFile + " ===\n");
 				for (Sound sound : fsb.getAllSounds()) {
 					println(sound.toString());
@@ -222,58 +697,76 @@ public class Driver {
 					count++;
 				}
 			}
-		}
 
-		builder.buildTo(outputFsbFile);
+			builder.buildTo(outputFsbFile);
+		} finally {
+			for (Fsb5Reader fsb : readers) {
+				fsb.close();
+			}
+		}
 		println("Successfully combined " + count + " sound(s) into " + outputFsbFile);
 	}
     
-	private static void replaceNormalFiles(BunyStruct dataBuny, BunyStruct data1Buny, Mod mod) throws IOException {
-		// data.buny
-		if (mod.getDataFiles().size() > 0) {
-			replaceNormalFiles(dataBuny, mod, false);
+	private static void printConflicts(ModOverlay overlay) {
+		if (!overlay.hasConflicts()) {
+			return;
 		}
+		Map<String, List<String>> conflicts = overlay.getConflicts();
+		println();
+		println("Found " + conflicts.size() + " files or sounds replaced by more than one mod, " +
+				"only the version of the last mod will be written:");
 		
-		// data_1.buny
-		if (mod.getData1Files().size() > 0) {
-			if (mod.getDataFiles().size() > 0) {
-				println();
+		StringBuilder sb = new StringBuilder();
+		int listed = 0;
+		for (Entry<String, List<String>> conflict : conflicts.entrySet()) {
+			if (listed++ >= TREE_VIEW_MAX_FILES) {
+				sb.append("  ... (").append(conflicts.size() - TREE_VIEW_MAX_FILES).append(" more)\n");
+				break;
 			}
-			replaceNormalFiles(data1Buny, mod, true);
-		}
-		
-		if (mod.getDataFiles().size() <= 0 && mod.getData1Files().size() <= 0) {
-			println("  This mod doesn't appear to contain any sound-unrelated files");
+			List<String> modNames = conflict.getValue();
+			sb.append("  ").append(conflict.getKey()).append(": ")
+			  .append(String.join(", ", modNames))
+			  .append(" -> ").append(modNames.get(modNames.size() - 1)).append('\n');
 		}
+		print(sb.toString());
 	}
 	
-	private static void replaceNormalFiles(BunyStruct buny, Mod mod, boolean isData1) throws IOException {
-		Iterator<Entry<String, File>> newFiles;
-		if (isData1) {
-			newFiles = mod.getData1Files().printingIterator();
-		} else {
-			newFiles = mod.getDataFiles().printingIterator();
-		}
+	// @return the report of the files, for the caller to print (this may run on a writer thread)
+	private static String replaceNormalFiles(BunyStruct buny, Mod mod, boolean isData1, ModOverlay overlay)
+			throws IOException {
+		FileTree<File> files = isData1 ? mod.getData1Files() : mod.getDataFiles();
+		Iterator<Entry<String, File>> newFiles = files.sortedIterator();
 		
 		int replaced = 0;
-		int skipped = 0;
+		Set<String> skippedFiles = new HashSet<>();
+		int overridden = 0;
 		while (newFiles.hasNext()) {
 			Entry<String, File> entry = newFiles.next();
 			String name = entry.getKey();
 			File file = entry.getValue();
 			name = name.substring(isData1 ? "data1/".length() : "data/".length());
 			
-			if (buny.containFile(name)) {
+			if (!overlay.wins(mod, entry.getKey())) {
+				overridden++;
+			} else if (buny.containFile(name)) {
 				buny.getFile(name).redirectTo(file);
-				print(" -> replaced");
 				replaced++;
 			} else {
-				print(" -> skipped");
-				skipped++;
+				skippedFiles.add(entry.getKey());
 			}
 		}
-		print("\n  Result: " + replaced + " files replaced");
-		println(skipped <= 0 ? "." : ";  " + skipped + " files skipped.");
+		int skipped = skippedFiles.size();
+		StringBuilder sb = new StringBuilder();
+		renderTree(sb, files, entry -> {
+			if (!overlay.wins(mod, entry.getKey())) {
+				return " -> overridden by " + overlay.getWinner(entry.getKey()).getName();
+			}
+			return skippedFiles.contains(entry.getKey()) ? " -> skipped" : " -> replaced";
+		});
+		sb.append("\n  Result: ").append(replaced).append(" files replaced");
+		sb.append(skipped <= 0 ? "" : ";  " + skipped + " files skipped");
+		sb.append(overridden <= 0 ? "." : ";  " + overridden + " files overridden by later mods.").append('\n');
+		return sb.toString();
 	}
 	
 	private static void removeSoundEvent(SoundModifier soundModifier, Mod mod) throws IOException {
@@ -285,7 +778,7 @@ public class Driver {
 		}
 	}
 	
-	private static void replaceSoundFiles(SoundModifier soundModifier, Mod mod) throws IOException {
+	private static void replaceSoundFiles(SoundModifier soundModifier, Mod mod, ModOverlay overlay) throws IOException {
 		int soundFileCount = mod.getSoundFileCount();
 		if (soundFileCount > 0) {
 			println();
@@ -301,7 +794,19 @@ public class Driver {
 						  " (total " + soundCount + " sounds): ");
 				}
 				
-				String result = soundModifier.modifyBy(soundFile);
+				int[] levelIndices = overlay.getWinningLevels(soundFile);
+				List<String> overriddenBy = new ArrayList<>();
+				for (int levelIndex : soundFile.getlevelIndex()) {
+					Mod winner = overlay.getSoundWinner(levelIndex, soundFile);
+					if (winner != mod) {
+						overriddenBy.add(LEVEL_NAMES[levelIndex] + " by " + winner.getName());
+					}
+				}
+				
+				String result = levelIndices.length > 0 ? soundModifier.modifyBy(soundFile, levelIndices) : "";
+				if (overriddenBy.size() > 0) {
+					result += (result.isEmpty() ? "" : ";  ") + "overridden(" + String.join(", ", overriddenBy) + ")";
+				}
 				println(result);
 			}
 		} else {
@@ -309,6 +814,26 @@ public class Driver {
 		}
 	}
 	
+	/*
+	 * Prints the tree of the files processed with one write, so that a large reset or mod
+	 * isn't slowed down by the console. Above TREE_VIEW_MAX_FILES files, only their number is printed.
+	 */
+	private static <V> void printTree(FileTree<V> tree, Function<? super Entry<String, V>, String> annotation)
+			throws IOException {
+		StringBuilder sb = new StringBuilder();
+		renderTree(sb, tree, annotation);
+		print(sb.toString());
+	}
+	
+	private static <V> void renderTree(StringBuilder sb, FileTree<V> tree,
+			Function<? super Entry<String, V>, String> annotation) throws IOException {
+		if (tree.size() > TREE_VIEW_MAX_FILES) {
+			sb.append("(" + tree.size() + " files, too many to list)");
+			return;
+		}
+		tree.renderTo(sb, annotation);
+	}
+	
 	private static void print(String string) {
         System.out.print(string);
     }
@@ -3,135 +3,218 @@ package zzx;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+/*
+ * The sound data files, simple events and random event groups are kept in columns,
+ * decoded once when the .flo file is read. The original lines are kept as well, so that
+ * everything which isn't changed is written back exactly as it was read.
+ *
+ * Event maps are indexed by name. A removed event map is only marked as removed
+ * (and skipped when writing), so removing one doesn't shift the others.
+ */
 public class FloStruct {
-	
+
 	private class EventMap {
 		String line;
-		
+
 		final int index;
 		boolean isRandom;
 		int eventIndex;
 		final String eventName;
-		
+
+		boolean removed;
+		// The next event map of the same section with the same name, if any
+		EventMap nextSameName;
+
 		EventMap(String line) {
 			this.line = line;
-			
-			line = line.trim();
-		    
-		    String[] parts = line.split(",\\s*");
-		    
-		    if (parts.length != 4) {
-		        throw new IllegalArgumentException("Invalid line: " + line);
-		    }
-
-		    this.index = Integer.parseInt(parts[0]);
-		    this.isRandom = Integer.parseInt(parts[1]) == 1;
-		    this.eventIndex = Integer.parseInt(parts[2]);
-		    this.eventName = parts[3];
+
+			int[] fields = new int[2 * 4];
+			if (split(line, fields) != 4) {
+				throw new IllegalArgumentException("Invalid line: " + line.trim());
+			}
+
+			this.index = parseInt(line, fields, 0);
+			this.isRandom = parseInt(line, fields, 1) == 1;
+			this.eventIndex = parseInt(line, fields, 2);
+			this.eventName = field(line, fields, 3);
 		}
-		
+
 		void update(boolean isRandom, int eventIndex) {
 			this.isRandom = isRandom;
 			this.eventIndex = eventIndex;
-			
+
 			line = index + ",\t" +
 				   (isRandom ? 1 : 0) + ", " +
 				   eventIndex + ", " +
 				   eventName;
 		}
-		
+
 		@Override
 		public String toString() {
 		    return line;
 		}
-		
-		@Override
-		public boolean equals(Object obj) {
-		    if (this == obj) return true;
-		    if (obj == null || getClass() != obj.getClass()) return false;
-		    EventMap other = (EventMap) obj;
-		    return line.equals(other.line);
+	}
+
+	/*
+	 * The event maps of one section (Pre or Pos), in file order, removed ones included.
+	 */
+	private class EventMapSection {
+		final List<EventMap> eventMaps = new ArrayList<>();
+		// name -> first event map with this name (the others are chained by nextSameName)
+		final Map<String, EventMap> byName = new HashMap<>();
+		int removedCount;
+
+		void add(EventMap eventMap) {
+			eventMaps.add(eventMap);
+			EventMap first = byName.putIfAbsent(eventMap.eventName, eventMap);
+			if (first != null) {
+				while (first.nextSameName != null) {
+					first = first.nextSameName;
+				}
+				first.nextSameName = eventMap;
+			}
 		}
 
-		@Override
-		public int hashCode() {
-		    return line.hashCode();
+		// Removes the first event map whose line is exactly this one
+		void remove(String eventName, String line) {
+			for (EventMap e = byName.get(eventName); e != null; e = e.nextSameName) {
+				if (!e.removed && e.line.equals(line)) {
+					e.removed = true;
+					removedCount++;
+					return;
+				}
+			}
+		}
+
+		int size() {
+			return eventMaps.size() - removedCount;
 		}
 	}
-	
+
+	private static final int INVALID = Integer.MIN_VALUE;
+
 	private List<String> startInfo = new ArrayList<>();
-	private List<String> soundDataFiles = new ArrayList<>();
+
+	// SoundDataFiles: "index, unknown, filename"
+	private List<String> soundDataFileLines = new ArrayList<>();	// null for added ones
+	private List<String> soundUnknowns = new ArrayList<>();			// null if the line is invalid
+	private List<String> soundNames = new ArrayList<>();
+
 	private List<String> soundParameterSets = new ArrayList<>();
-	private List<String> simpleEvents = new ArrayList<>();
-	private List<int[]> randomEvents = new ArrayList<>();
-	private List<EventMap> eventMapsPre = new ArrayList<>();
-	// private List<EventMap> eventMapsPan = new ArrayList<>();
-	private List<EventMap> eventMapsPos = new ArrayList<>();
-	
+
+	// SimpleEvents: "index, soundIndex, unknown, playMode"
+	private List<String> simpleEventLines = new ArrayList<>();		// null for added ones
+	private int simpleEventCount;
+	private int[] simpleEventSounds = new int[16];					// INVALID if the line is invalid
+	private int[] simpleEventUnknowns = new int[16];
+	private int[] simpleEventPlayModes = new int[16];
+
+	// RandomEvents: the events of group i are randomEvents[randomEventStarts[i] ~ randomEventStarts[i + 1]]
+	private int randomEventGroupCount;
+	private int[] randomEventStarts = new int[17];
+	private int[] randomEvents = new int[16];
+
+	private EventMapSection eventMapsPre = new EventMapSection();
+	// private EventMapSection eventMapsPan = new EventMapSection();
+	private EventMapSection eventMapsPos = new EventMapSection();
+
 	private Map<String, EventMap> eventMaps = new HashMap<>();
-	
+
 	public FloStruct(File floFile) throws IOException {
-		try (BufferedReader reader = new BufferedReader(new FileReader(floFile))) {
-			
+		this(new FileInputStream(floFile));
+	}
+	
+	// Reads the whole stream, and closes it
+	public FloStruct(InputStream in) throws IOException {
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(in))) {
+			int[] fields = new int[2 * 4];
+
 			// start info (Unimportant part)
 	        for (String line = reader.readLine();
 	        	 !"SoundDataFiles".equals(line);
 	        	 line = reader.readLine()) {
 	        	startInfo.add(line);
 	        }
-	        
+
 	        // SoundDataFiles
 	        int count = Integer.parseInt(reader.readLine());
 	        for (int i = 0; i < count; i++) {
-	        	soundDataFiles.add(reader.readLine());
+	        	String line = reader.readLine();
+	        	soundDataFileLines.add(line);
+	        	if (split(line, fields) >= 3) {
+	        		soundUnknowns.add(field(line, fields, 1));
+	        		soundNames.add(field(line, fields, 2));
+	        	} else {
+	        		soundUnknowns.add(null);
+	        		soundNames.add(null);
+	        	}
 	        }
-	        
+
 	        // SoundParameterSets (Unimportant part)
 	        for (String line = readLineSkipEmpty(reader);
 				 !"SimpleEvents".equals(line);
 				 line = reader.readLine()) {
 				soundParameterSets.add(line);
 			}
-	        
+
 	        // SimpleEvents
 	        count = Integer.parseInt(reader.readLine());
 	        for (int i = 0; i < count; i++) {
-	        	simpleEvents.add(reader.readLine());
+	        	String line = reader.readLine();
+	        	int soundIndex = INVALID;
+	        	int unknown = 0;
+	        	int playMode = 0;
+	        	try {
+	        		if (split(line, fields) >= 4) {
+	        			soundIndex = parseInt(line, fields, 1);
+	        			unknown = parseInt(line, fields, 2);
+	        			playMode = parseInt(line, fields, 3);
+	        		}
+	        	} catch (NumberFormatException e) {
+	        		soundIndex = INVALID;
+	        	}
+	        	simpleEventLines.add(line);
+	        	appendSimpleEvent(soundIndex, unknown, playMode);
 	        }
-	        
+
 	        // RandomEvents title
 	        readLineSkipEmpty(reader);
-	        
+
 	        // RandomEvents group count
 	        count = Integer.parseInt(reader.readLine());
-	        
+
 	        // RandomEvents group
 	        for (int i = 0; i < count; i++) {
-	        	String header = reader.readLine().trim();
-	            String[] headerParts = header.split(",\\s*");
-	            int eventCount = Integer.parseInt(headerParts[1]);
+	        	String header = reader.readLine();
+	        	requireFields(header, fields, 2);
+	            int eventCount = parseInt(header, fields, 1);
 	            int[] eventIndices = new int[eventCount];
 
 	            for (int j = 0; j < eventCount; j++) {
-	                String line = reader.readLine().trim();
-	                String[] parts = line.split(",\\s*");
-	                eventIndices[j] = Integer.parseInt(parts[1]);
+	                String line = reader.readLine();
+	                requireFields(line, fields, 2);
+	                eventIndices[j] = parseInt(line, fields, 1);
 	            }
 
-	            randomEvents.add(eventIndices);
+	            appendRandomEventGroup(eventIndices);
 	        }
-	        
+
 	        // EventMaps title
 	        readLineSkipEmpty(reader);
-	        
+
 	        // EventMaps Pre
 	        readLineSkipEmpty(reader);
 	        count = Integer.parseInt(reader.readLine());
@@ -140,20 +223,20 @@ public class FloStruct {
 	        	eventMapsPre.add(eventMap);
 	        	eventMaps.put(eventMap.eventName, eventMap);
 	        }
-	        
+
 	        /*
 	         * In pc_ui.flo, the actual number of lines here will be 1 more than indicated by count.
 	         * This extra line should be discarded.
 	         */
 	        reader.readLine();
-	        
+
 	        // EventMaps Pan (always empty)
 	        readLineSkipEmpty(reader);
 	        count = Integer.parseInt(reader.readLine());
 	        if (count != 0) {
 	        	throw new IllegalArgumentException("Invalid EventMaps Pan count: " + count);
 	        }
-	        
+
 	        // EventMaps Pos
 	        readLineSkipEmpty(reader);
 	        count = Integer.parseInt(reader.readLine());
@@ -164,160 +247,281 @@ public class FloStruct {
 	        }
 	    }
 	}
-	
+
 	public void writeTo(File file) throws IOException {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
-            // startInfo
-            for (String line : startInfo) {
-                writeLine(writer, line);
-            }
-            
-            // SoundDataFiles
-            writeLine(writer, "SoundDataFiles");
-            writeIntLine(writer, soundDataFiles.size());
-            for (String line : soundDataFiles) {
-                writeLine(writer, line);
-            }
-            writeEmptyLine(writer);
-            
-            // SoundParameterSets
-            for (String line : soundParameterSets) {
-                writeLine(writer, line);
-            }
-            
-            // SimpleEvents
-            writeLine(writer, "SimpleEvents");
-            writeIntLine(writer, simpleEvents.size());
-            for (String line : simpleEvents) {
-                writeLine(writer, line);
-            }
-            writeEmptyLine(writer);
-            
-            // RandomEvents
-            writeLine(writer, "RandomEvents");
-            writeIntLine(writer, randomEvents.size());
-            for (int i = 0; i < randomEvents.size(); i++) {
-                int[] group = randomEvents.get(i);
-                writeLine(writer, i + ",\t" + group.length);
-                for (int event : group) {
-                    writeLine(writer, "\t0, " + event);
-                }
-            }
-            writeEmptyLine(writer);
-            
-            // EventMaps title
-            writeLine(writer, "EventMaps");
-            writeEmptyLine(writer);
-            
-            // EventMaps Pre
-            writeLine(writer, "Pre");
-            writeIntLine(writer, eventMapsPre.size());
-            for (EventMap eventMap : eventMapsPre) {
-                writeLine(writer, eventMap.toString());
-            }
-            writeEmptyLine(writer);
-            
-            // EventMaps Pan
-            writeLine(writer, "Pan");
-            writeIntLine(writer, 0);
-            writeEmptyLine(writer);
-            
-            // EventMaps Pos
-            writeLine(writer, "Pos");
-            writeIntLine(writer, eventMapsPos.size());
-            for (EventMap eventMap : eventMapsPos) {
-                writeLine(writer, eventMap.toString());
+		try (OutputStream out = new FileOutputStream(file)) {
+			writeTo(out);
+		}
+	}
+	
+	// Flushes, but doesn't close the stream
+	public void writeTo(OutputStream out) throws IOException {
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out));
+        // startInfo
+        for (String line : startInfo) {
+            writeLine(writer, line);
+        }
+
+        // SoundDataFiles
+        writeLine(writer, "SoundDataFiles");
+        writeIntLine(writer, soundDataFileLines.size());
+        for (int i = 0; i < soundDataFileLines.size(); i++) {
+        	String line = soundDataFileLines.get(i);
+        	if (line != null) {
+        		writeLine(writer, line);
+        	} else {
+        		writeLine(writer, i + ",\t" + soundUnknowns.get(i) + ",\t" + soundNames.get(i));
+        	}
+        }
+        writeEmptyLine(writer);
+
+        // SoundParameterSets
+        for (String line : soundParameterSets) {
+            writeLine(writer, line);
+        }
+
+        // SimpleEvents
+        writeLine(writer, "SimpleEvents");
+        writeIntLine(writer, simpleEventCount);
+        for (int i = 0; i < simpleEventCount; i++) {
+        	String line = simpleEventLines.get(i);
+        	if (line != null) {
+        		writeLine(writer, line);
+        	} else {
+        		writeLine(writer, i + ",\t" + simpleEventSounds[i] + ", " +
+        				simpleEventUnknowns[i] + ", " + simpleEventPlayModes[i]);
+        	}
+        }
+        writeEmptyLine(writer);
+
+        // RandomEvents
+        writeLine(writer, "RandomEvents");
+        writeIntLine(writer, randomEventGroupCount);
+        for (int i = 0; i < randomEventGroupCount; i++) {
+            int start = randomEventStarts[i];
+            int end = randomEventStarts[i + 1];
+            writeLine(writer, i + ",\t" + (end - start));
+            for (int j = start; j < end; j++) {
+                writeLine(writer, "\t0, " + randomEvents[j]);
             }
-            writeEmptyLine(writer);
         }
+        writeEmptyLine(writer);
+
+        // EventMaps title
+        writeLine(writer, "EventMaps");
+        writeEmptyLine(writer);
+
+        // EventMaps Pre
+        writeLine(writer, "Pre");
+        writeEventMaps(writer, eventMapsPre);
+        writeEmptyLine(writer);
+
+        // EventMaps Pan
+        writeLine(writer, "Pan");
+        writeIntLine(writer, 0);
+        writeEmptyLine(writer);
+
+        // EventMaps Pos
+        writeLine(writer, "Pos");
+        writeEventMaps(writer, eventMapsPos);
+        writeEmptyLine(writer);
+        writer.flush();
     }
-	
+
+	private static void writeEventMaps(BufferedWriter writer, EventMapSection section) throws IOException {
+		writeIntLine(writer, section.size());
+		for (EventMap eventMap : section.eventMaps) {
+			if (!eventMap.removed) {
+				writeLine(writer, eventMap.toString());
+			}
+		}
+	}
+
 	public int addSound(String unknown, String name) {
-	    int index = soundDataFiles.size();
-	    String line = index + ",\t" + unknown + ",\t" + name;
-	    soundDataFiles.add(line);
+	    int index = soundDataFileLines.size();
+	    soundDataFileLines.add(null);
+	    soundUnknowns.add(unknown);
+	    soundNames.add(name);
 	    return index;
 	}
 
 	public int addSimpleEvent(int soundIndex, int unknown, int playMode) {
-	    int index = simpleEvents.size();
-	    String line = index + ",\t" + soundIndex + ", " + unknown + ", " + playMode;
-	    simpleEvents.add(line);
+	    int index = simpleEventCount;
+	    simpleEventLines.add(null);
+	    appendSimpleEvent(soundIndex, unknown, playMode);
 	    return index;
 	}
-	
+
+	private void appendSimpleEvent(int soundIndex, int unknown, int playMode) {
+		if (simpleEventCount == simpleEventSounds.length) {
+			int capacity = simpleEventCount * 2;
+			simpleEventSounds = Arrays.copyOf(simpleEventSounds, capacity);
+			simpleEventUnknowns = Arrays.copyOf(simpleEventUnknowns, capacity);
+			simpleEventPlayModes = Arrays.copyOf(simpleEventPlayModes, capacity);
+		}
+		simpleEventSounds[simpleEventCount] = soundIndex;
+		simpleEventUnknowns[simpleEventCount] = unknown;
+		simpleEventPlayModes[simpleEventCount] = playMode;
+		simpleEventCount++;
+	}
+
 	public int addRandomEventGroup(int... eventIndices) {
-	    int index = randomEvents.size();
-	    randomEvents.add(eventIndices);
+	    return appendRandomEventGroup(eventIndices);
+	}
+
+	private int appendRandomEventGroup(int[] eventIndices) {
+	    int index = randomEventGroupCount;
+	    int start = randomEventStarts[index];
+	    if (start + eventIndices.length > randomEvents.length) {
+	    	randomEvents = Arrays.copyOf(randomEvents, Math.max(randomEvents.length * 2, start + eventIndices.length));
+	    }
+	    if (index + 2 > randomEventStarts.length) {
+	    	randomEventStarts = Arrays.copyOf(randomEventStarts, randomEventStarts.length * 2);
+	    }
+	    System.arraycopy(eventIndices, 0, randomEvents, start, eventIndices.length);
+	    randomEventStarts[index + 1] = start + eventIndices.length;
+	    randomEventGroupCount++;
 	    return index;
 	}
-	
+
 	public boolean containsEvent(String eventName) {
 		return eventMaps.containsKey(eventName);
 	}
-	
+
 	public int[] getEventIndex(String eventName) {
 		EventMap eventMap = eventMaps.get(eventName);
 		if (eventMap.isRandom) {
-			return randomEvents.get(eventMap.eventIndex);
+			if (eventMap.eventIndex < 0 || eventMap.eventIndex >= randomEventGroupCount) {
+				throw new IndexOutOfBoundsException("Random event group " + eventMap.eventIndex);
+			}
+			return Arrays.copyOfRange(randomEvents,
+					randomEventStarts[eventMap.eventIndex], randomEventStarts[eventMap.eventIndex + 1]);
 		} else {
 			return new int[] {eventMap.eventIndex};
 		}
 	}
-	
-	public int[] getSimpleEvent(int eventIndex) {
-	    String line = simpleEvents.get(eventIndex).trim();
-	    String[] parts = line.split(",\\s*");
 
-	    if (parts.length < 4) {
-	        throw new IllegalArgumentException("Invalid simple event line: " + line);
+	public int[] getSimpleEvent(int eventIndex) {
+		if (eventIndex < 0 || eventIndex >= simpleEventCount) {
+			throw new IndexOutOfBoundsException("Simple event " + eventIndex);
+		}
+	    if (simpleEventSounds[eventIndex] == INVALID) {
+	        throw new IllegalArgumentException("Invalid simple event line: " + simpleEventLines.get(eventIndex).trim());
 	    }
 
 	    return new int[] {
-	        Integer.parseInt(parts[1]),
-	        Integer.parseInt(parts[2]),
-	        Integer.parseInt(parts[3])
+	        simpleEventSounds[eventIndex],
+	        simpleEventUnknowns[eventIndex],
+	        simpleEventPlayModes[eventIndex]
 	    };
 	}
 
 	public String[] getSoundDataFile(int soundIndex) {
-	    String line = soundDataFiles.get(soundIndex).trim();
-	    String[] parts = line.split(",\\s*");
-
-	    if (parts.length < 3) {
-	        throw new IllegalArgumentException("Invalid sound data line: " + line);
+	    if (soundUnknowns.get(soundIndex) == null) {
+	        throw new IllegalArgumentException("Invalid sound data line: " + soundDataFileLines.get(soundIndex).trim());
 	    }
 
 	    return new String[] {
-	        parts[1], // unknown (Possibly related to the type/management/storage method of the Sound?)
-	        parts[2]  // filename
+	        soundUnknowns.get(soundIndex), // unknown (Possibly related to the type/management/storage method of the Sound?)
+	        soundNames.get(soundIndex)  // filename
 	    };
 	}
-	
+
 	public void redirectEvent(String eventName, boolean isRandom, int eventIndex) {
 		EventMap eventMap = eventMaps.get(eventName);
 		eventMap.update(isRandom, eventIndex);
 	}
-	
+
+	/*
+	 * Removes the event map which is written exactly like this line (in either section).
+	 * Only costs a lookup by name, so removing thousands of events stays linear.
+	 */
 	public void removeEvent(String line) {
 		if (line == null) {
 			return;
 		}
-		
+
 		EventMap eventMap = null;
 		try {
 			eventMap = new EventMap(line);
 		} catch (IllegalArgumentException e) {
 			return;
 		}
-		
+
 		if (eventMaps.containsKey(eventMap.eventName)) {
 			eventMaps.remove(eventMap.eventName);
-			eventMapsPre.remove(eventMap);
-			eventMapsPos.remove(eventMap);
+			eventMapsPre.remove(eventMap.eventName, line);
+			eventMapsPos.remove(eventMap.eventName, line);
 		}
 	}
-	
+
+	/*
+	 * Splits a line into comma separated fields, like line.trim().split(",\\s*") would,
+	 * but without a regex and without creating any strings: the start and end of field i
+	 * are stored in fields[2 * i] and fields[2 * i + 1] (as far as the array goes).
+	 *
+	 * @return the number of fields
+	 */
+	private static int split(String line, int[] fields) {
+		int start = 0;
+		int end = line.length();
+		while (start < end && line.charAt(start) <= ' ') {
+			start++;
+		}
+		while (end > start && line.charAt(end - 1) <= ' ') {
+			end--;
+		}
+
+		int count = 0;
+		int nonEmptyCount = 0;	// the number of fields up to the last non-empty one
+		boolean hasComma = false;
+		int fieldStart = start;
+		for (int i = start; i <= end; i++) {
+			if (i < end && line.charAt(i) != ',') {
+				continue;
+			}
+			if (2 * count + 1 < fields.length) {
+				fields[2 * count] = fieldStart;
+				fields[2 * count + 1] = i;
+			}
+			count++;
+			if (i > fieldStart) {
+				nonEmptyCount = count;
+			}
+			if (i < end) {
+				hasComma = true;
+				// skip the white space after the comma
+				fieldStart = i + 1;
+				while (fieldStart < end && isWhitespace(line.charAt(fieldStart))) {
+					fieldStart++;
+				}
+				i = fieldStart - 1;
+			}
+		}
+
+		// String.split drops trailing empty fields (unless nothing was split at all)
+		return hasComma ? nonEmptyCount : count;
+	}
+
+	private static void requireFields(String line, int[] fields, int count) {
+		if (split(line, fields) < count) {
+			throw new IllegalArgumentException("Invalid line: " + line.trim());
+		}
+	}
+
+	// The white space of the regex \s
+	private static boolean isWhitespace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+	}
+
+	private static int parseInt(String line, int[] fields, int i) {
+		return Integer.parseInt(line, fields[2 * i], fields[2 * i + 1], 10);
+	}
+
+	private static String field(String line, int[] fields, int i) {
+		return line.substring(fields[2 * i], fields[2 * i + 1]);
+	}
+
 	private static String readLineSkipEmpty(BufferedReader reader) throws IOException {
 		String line;
 		while ((line = reader.readLine()) != null) {
@@ -327,18 +531,18 @@ public class FloStruct {
 		}
 		return null;
 	}
-	
+
     private static void writeLine(BufferedWriter writer, String content) throws IOException {
         writer.write(content);
         writer.write("\r\n");
     }
-    
+
     private static void writeEmptyLine(BufferedWriter writer) throws IOException {
         writer.write("\r\n");
     }
-    
+
     private static void writeIntLine(BufferedWriter writer, int value) throws IOException {
         writer.write(Integer.toString(value));
         writer.write("\r\n");
     }
-}
\ No newline at end of file
+}
@@ -12,13 +12,20 @@ import java.util.Map.Entry;
 import java.util.Set;
 
 import zzx.fsb5.Fsb5Reader;
+import zzx.fsb5.Fsb5ReaderPool;
 import zzx.fsb5.SoundFromFsb;
 import zzx.utils.FileTree;
+import zzx.utils.ScannedFile;
+import zzx.utils.ZipDirectory;
+import zzx.utils.ZipEntryFile;
 
 import static zzx.Config.*;
 
 public class Mod implements Closeable {
 	
+	// Shared by the sound files of all mods, so that a large mod pack can't run out of file handles
+	private static final Fsb5ReaderPool SOUND_FILE_POOL = new Fsb5ReaderPool(SOUND_FILES_MAX_OPEN);
+	
 	public class SoundFile implements Closeable {
 		private final int[] levelIndex;
 		
@@ -69,12 +76,16 @@ public class Mod implements Closeable {
 		public String getEventName() {
 			return eventName;
 		}
+		
+		public File[] getFiles() {
+			return files;
+		}
 
 		public SoundFromFsb[] getSounds() throws IOException {
 			if (soundContainers == null) {
 				soundContainers = new Fsb5Reader[files.length];
 				for (int i = 0; i < files.length; i++) {
-					soundContainers[i] = new Fsb5Reader(files[i]);
+					soundContainers[i] = new Fsb5Reader(files[i], SOUND_FILE_POOL);
 				}
 			}
 			
@@ -110,22 +121,79 @@ public class Mod implements Closeable {
     private FileTree<File> dataFiles;
     private FileTree<File> data1Files;
     
+    // Only for a mod packed in a .zip file
+    private ZipDirectory zip;
+    
     private List<SoundFile> soundFiles;
     private File[] removeFloFile;
     
+    /**
+     * @param modFolder the folder of the mod, or a .zip file with the same content
+     */
     public Mod(File modFolder) throws IOException {
     	this.modFolder = modFolder;
     	
-    	File dataFolder = new File(modFolder, "data");
-    	File data1Folder = new File(modFolder, "data1");
-    	
-        // Collect files separately from "modFolder/data" and "modFolder/data1"
-        this.dataFiles = new FileTree<File>(dataFolder, f -> f);
-        this.data1Files = new FileTree<File>(data1Folder, f -> f);;
+    	if (ZipDirectory.isZipFile(modFolder)) {
+    		readZip();
+    	} else {
+    		File dataFolder = new File(modFolder, "data");
+    		File data1Folder = new File(modFolder, "data1");
+    		
+    		// Collect files separately from "modFolder/data" and "modFolder/data1",
+    		// keeping the size and modification time read by the scan
+    		this.dataFiles = new FileTree<File>(dataFolder, ScannedFile::new);
+    		this.data1Files = new FileTree<File>(data1Folder, ScannedFile::new);
+    	}
 
         filterOutSoundFiles();
     }
     
+    /*
+     * The files of a zipped mod are listed from the central directory of the .zip file,
+     * and they are read from it when needed, without extracting the mod.
+     * The zip may contain "data/" and "data1/" directly, or the whole mod folder.
+     */
+    private void readZip() throws IOException {
+    	zip = new ZipDirectory(modFolder);
+    	dataFiles = new FileTree<File>("data");
+    	data1Files = new FileTree<File>("data1");
+    	
+    	List<ZipEntryFile> entries = zip.getEntries();
+    	String root = findZipRoot(entries);
+    	for (ZipEntryFile entry : entries) {
+    		String name = entry.getEntryName().replace('\\', '/');
+    		if (!name.startsWith(root)) {
+    			continue;
+    		}
+    		name = name.substring(root.length());
+    		
+    		if (name.startsWith("data/")) {
+    			dataFiles.put(name.substring("data/".length()), entry);
+    		} else if (name.startsWith("data1/")) {
+    			data1Files.put(name.substring("data1/".length()), entry);
+    		}
+    	}
+    }
+    
+    // @return "" if "data/" or "data1/" are at the top of the zip, else the single top directory (e.g. "my_mod/")
+    private static String findZipRoot(List<ZipEntryFile> entries) {
+    	String root = null;
+    	for (ZipEntryFile entry : entries) {
+    		String name = entry.getEntryName().replace('\\', '/');
+    		if (name.startsWith("data/") || name.startsWith("data1/")) {
+    			return "";
+    		}
+    		int slash = name.indexOf('/');
+    		String top = slash < 0 ? "" : name.substring(0, slash + 1);
+    		if (root == null) {
+    			root = top;
+    		} else if (!root.equals(top)) {
+    			return "";
+    		}
+    	}
+    	return root == null ? "" : root;
+    }
+    
     public String getName() {
     	return modFolder.getName();
     }
@@ -280,6 +348,9 @@ public class Mod implements Closeable {
 				c.close();
 			}
 		}
+		if (zip != null) {
+			zip.close();
+		}
 	}
 
 }
@@ -0,0 +1,135 @@
+package zzx;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+
+import zzx.Mod.SoundFile;
+
+import static zzx.Config.*;
+
+/*
+ * All the mods to be loaded, merged before anything is written: when several mods replace
+ * the same file, the same sound index or the same event (of a level), the last one in loading
+ * order wins, and only its version is written to the archive. The others would only be
+ * appended to be overridden right away, leaving dead space in the archive.
+ *
+ * Removed events (remove.flo) are not merged, the removals of every mod are still applied.
+ */
+public class ModOverlay {
+
+	// "data/..." or "data1/..." -> the mod whose file wins
+	private Map<String, Mod> fileWinners = new HashMap<>();
+
+	// "[level] index 475" or "[level] event Name*Event" -> the sound file which wins, and its mod
+	private Map<String, SoundFile> soundWinners = new HashMap<>();
+	private Map<String, Mod> soundWinnerMods = new HashMap<>();
+
+	// The files and sounds replaced by more than one mod -> the names of these mods, in loading order
+	private Map<String, List<String>> conflicts = new TreeMap<>();
+
+	/*
+	 * @param mods the mods in loading order
+	 */
+	public ModOverlay(List<Mod> mods) {
+		for (Mod mod : mods) {
+			putFiles(mod, mod.getDataFiles());
+			putFiles(mod, mod.getData1Files());
+
+			for (SoundFile soundFile : mod.getAllSoundFiles()) {
+				for (int levelIndex : soundFile.getlevelIndex()) {
+					String key = soundKey(levelIndex, soundFile);
+					soundWinners.put(key, soundFile);
+					addConflict(key, soundWinnerMods.put(key, mod), mod);
+				}
+			}
+		}
+	}
+
+	private void putFiles(Mod mod, Map<String, File> files) {
+		Set<File> removeFloFiles = new HashSet<>();
+		for (int i = 0; i < LEVEL_COUNT; i++) {
+			removeFloFiles.add(mod.getRemoveFloFile(i));
+		}
+		for (Entry<String, File> entry : files.entrySet()) {
+			if (!removeFloFiles.contains(entry.getValue())) {
+				addConflict(entry.getKey(), fileWinners.put(entry.getKey(), mod), mod);
+			}
+		}
+	}
+
+	private void addConflict(String key, Mod previous, Mod mod) {
+		if (previous == null || previous == mod) {
+			return;
+		}
+		conflicts.computeIfAbsent(key, k -> new ArrayList<>(Arrays.asList(previous.getName())))
+				 .add(mod.getName());
+	}
+
+	private static String soundKey(int levelIndex, SoundFile soundFile) {
+		String level = "[" + LEVEL_NAMES[levelIndex] + "] ";
+		if (soundFile.isIndexBased()) {
+			return level + "index " + soundFile.getSoundIndex();
+		}
+		return level + "event " + soundFile.getEventName();
+	}
+
+	/*
+	 * @param path the path of a file of the mod, as in its FileTree (e.g. "data/ui/logo.png")
+	 * @return the mod whose version of the file is written, null if no mod has it
+	 *         (or if it is a remove.flo file)
+	 */
+	public Mod getWinner(String path) {
+		return fileWinners.get(path);
+	}
+
+	/*
+	 * @return the levels for which this sound file (of any mod) is the one written
+	 */
+	public int[] getWinningLevels(SoundFile soundFile) {
+		int[] levelIndices = soundFile.getlevelIndex();
+		int[] winning = new int[levelIndices.length];
+		int count = 0;
+		for (int levelIndex : levelIndices) {
+			if (soundWinners.get(soundKey(levelIndex, soundFile)) == soundFile) {
+				winning[count++] = levelIndex;
+			}
+		}
+		return Arrays.copyOf(winning, count);
+	}
+
+	/*
+	 * @return the mod whose sound wins over this sound file for this level
+	 */
+	public Mod getSoundWinner(int levelIndex, SoundFile soundFile) {
+		return soundWinnerMods.get(soundKey(levelIndex, soundFile));
+	}
+
+	/*
+	 * @return the files (e.g. "data/ui/logo.png") and sounds (e.g. "[a1] index 475") replaced by
+	 *         more than one mod, sorted -> the names of these mods in loading order, the last one wins
+	 */
+	public Map<String, List<String>> getConflicts() {
+		return Collections.unmodifiableMap(conflicts);
+	}
+
+	public boolean hasConflicts() {
+		return !conflicts.isEmpty();
+	}
+
+	/*
+	 * @return whether the file at this path of the mod is the one written
+	 */
+	public boolean wins(Mod mod, String path) {
+		Mod winner = getWinner(path);
+		return winner == null || winner == mod;
+	}
+}
@@ -0,0 +1,243 @@
+package zzx;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+import zzx.buny.ArchiveJournal;
+import zzx.buny.BunyStruct;
+import zzx.buny.FileInside;
+import zzx.utils.LERandomAccessFile;
+import zzx.utils.ZipEntryFile;
+
+import static zzx.Config.*;
+
+/*
+ * A cache of the level .fsb/.flo files rebuilt by SoundModifier.
+ *
+ * A rebuilt level is a deterministic function of its original .fsb/.flo and of the ordered
+ * list of changes made to it, so each level gets a SHA-256 key fed with:
+ *   - the original .fsb: its TOC entry, its header (which holds FMOD's hash of the bank)
+ *     and its sample table. The data part isn't hashed: the original bytes are never
+ *     modified (the cache is disabled while a journal of in-place patches exists),
+ *     so reading the whole .fsb would only cost as much as rebuilding it;
+ *   - the original .flo: its whole content;
+ *   - every change, in order: its kind and target (sound index or event name), the bytes of
+ *     the mod sound files, and the lines of remove.flo.
+ *
+ * The rebuilt files are kept next to the archive, in BunyUtilCache/<key>.fsb and <key>.flo,
+ * since --reset truncates whatever was appended to the archive. On a hit, SoundModifier
+ * appends the cached file with a single transfer and repoints the TOC entry, skipping the rebuild.
+ */
+public class RebuildCache {
+	
+	private final File dir;
+	private final boolean enabled;
+	
+	private final MessageDigest[] digests = new MessageDigest[LEVEL_COUNT];
+	private final String[] keys = new String[LEVEL_COUNT];
+	
+	// A mod sound shared by all levels is only read once
+	private final Map<File, byte[]> fileDigests = new HashMap<>();
+	
+	public RebuildCache(BunyStruct buny) throws IOException {
+		this(buny, true);
+	}
+	
+	// A disabled cache neither hashes nor stores anything
+	public RebuildCache(BunyStruct buny, boolean enabled) throws IOException {
+		this.dir = new File(buny.getArchiveFile().getAbsoluteFile().getParentFile(), REBUILD_CACHE_DIR_NAME);
+		this.enabled = enabled && !ArchiveJournal.patchedInPlace(buny);
+	}
+	
+	public void addOriginalFsb(int levelIndex, FileInside fsb) throws IOException {
+		if (!enabled) {
+			return;
+		}
+		// header (0x3C bytes, table size at 0x0C) and sample table, straight from the archive
+		LERandomAccessFile raf = fsb.getSlice();
+		ByteBuffer header = ByteBuffer.allocate(0x3C).order(ByteOrder.LITTLE_ENDIAN);
+		raf.readFully(header, 0);
+		ByteBuffer table = ByteBuffer.allocate(header.getInt(0x0C));
+		raf.readFully(table, 0x3C);
+		
+		MessageDigest digest = digest(levelIndex);
+		update(digest, "fsb " + fsb.getOffset() + " " + fsb.getZsize() + " " + fsb.getSize());
+		digest.update(header.array());
+		digest.update(table.array());
+	}
+	
+	/**
+	 * Wraps the stream the original .flo of a level is read from: its content is hashed while
+	 * it is read, and goes into the key of the level when the stream is closed
+	 * (whatever hasn't been read by then is read and hashed too).
+	 */
+	public InputStream addOriginalFlo(int levelIndex, InputStream in) {
+		if (!enabled) {
+			return in;
+		}
+		return new DigestInputStream(in, newDigest()) {
+			private boolean closed;
+			
+			@Override
+			public void close() throws IOException {
+				if (closed) {
+					return;
+				}
+				closed = true;
+				byte[] buffer = new byte[0x10000];
+				while (read(buffer) >= 0) {
+					// hash the rest
+				}
+				super.close();
+				
+				MessageDigest digest = digest(levelIndex);
+				update(digest, "flo");
+				digest.update(getMessageDigest().digest());
+			}
+		};
+	}
+	
+	/**
+	 * @param change what was changed, e.g. "index 475" or "event ambience_wind"
+	 * @param files  the mod sound files which were used
+	 */
+	public void addReplacement(int levelIndex, String change, File... files) throws IOException {
+		if (!enabled) {
+			return;
+		}
+		MessageDigest digest = digest(levelIndex);
+		update(digest, change);
+		for (File file : files) {
+			byte[] fileDigest = fileDigests.get(file);
+			if (fileDigest == null) {
+				fileDigest = hashFile(file);
+				fileDigests.put(file, fileDigest);
+			}
+			digest.update(fileDigest);
+		}
+	}
+	
+	public void addRemoval(int levelIndex, String eventName) {
+		if (!enabled) {
+			return;
+		}
+		update(digest(levelIndex), "remove " + eventName);
+	}
+	
+	/**
+	 * @param extension "fsb" or "flo"
+	 * @return the cached file for the current key of this level, or null if there is none
+	 */
+	public File get(int levelIndex, String extension) {
+		if (!enabled) {
+			return null;
+		}
+		File file = new File(dir, key(levelIndex) + "." + extension);
+		if (!file.isFile()) {
+			return null;
+		}
+		file.setLastModified(System.currentTimeMillis());
+		return file;
+	}
+	
+	/**
+	 * Stores a region of the archive (e.g. a .fsb just rebuilt at its end) as the cached file of this level.
+	 */
+	public void put(int levelIndex, String extension, LERandomAccessFile archive, long offset, long size) throws IOException {
+		if (!enabled) {
+			return;
+		}
+		File temp = createTempFileInCache();
+		try (FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE)) {
+			archive.transferTo(out, offset, size);
+		}
+		commit(temp, levelIndex, extension);
+	}
+	
+	// Called by the workers rebuilding the levels in parallel, so the directory may be created by another one meanwhile
+	private File createTempFileInCache() throws IOException {
+		Files.createDirectories(dir.toPath());
+		return File.createTempFile("rebuild-", ".tmp", dir);
+	}
+	
+	// Only complete files ever get a key as their name
+	private synchronized void commit(File temp, int levelIndex, String extension) throws IOException {
+		File target = new File(dir, key(levelIndex) + "." + extension);
+		Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		evict();
+	}
+	
+	private void evict() {
+		File[] files = dir.listFiles((d, name) -> !name.endsWith(".tmp"));
+		if (files == null || files.length <= REBUILD_CACHE_MAX_FILES) {
+			return;
+		}
+		Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+		for (int i = 0; i < files.length - REBUILD_CACHE_MAX_FILES; i++) {
+			files[i].delete();
+		}
+	}
+	
+	private MessageDigest digest(int levelIndex) {
+		if (keys[levelIndex] != null) {
+			throw new IllegalStateException("The key of " + LEVEL_NAMES[levelIndex] + " has already been computed");
+		}
+		if (digests[levelIndex] == null) {
+			digests[levelIndex] = newDigest();
+		}
+		return digests[levelIndex];
+	}
+	
+	private String key(int levelIndex) {
+		if (keys[levelIndex] == null) {
+			byte[] hash = digest(levelIndex).digest();
+			StringBuilder sb = new StringBuilder(LEVEL_NAMES[levelIndex]).append('-');
+			for (byte b : hash) {
+				sb.append(String.format("%02x", b));
+			}
+			keys[levelIndex] = sb.toString();
+		}
+		return keys[levelIndex];
+	}
+	
+	// Strings are length-prefixed, so that two different lists of changes can't hash the same
+	private static void update(MessageDigest digest, String s) {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		digest.update(ByteBuffer.allocate(4).putInt(bytes.length).array());
+		digest.update(bytes);
+	}
+	
+	private static byte[] hashFile(File file) throws IOException {
+		MessageDigest digest = newDigest();
+		byte[] buffer = new byte[0x10000];
+		try (InputStream in = ZipEntryFile.openStream(file)) {
+			for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+				digest.update(buffer, 0, n);
+			}
+		}
+		return digest.digest();
+	}
+	
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError("SHA-256 is always available", e);
+		}
+	}
+}
@@ -1,48 +1,79 @@
 package zzx;
 
 import zzx.Mod.SoundFile;
+import zzx.buny.ArchiveJournal;
 import zzx.buny.BunyStruct;
 import zzx.buny.FileInside;
 import zzx.fsb5.Fsb5Builder;
 import zzx.fsb5.Fsb5Reader;
 import zzx.fsb5.Sound;
 import zzx.utils.LERandomAccessFile;
+import zzx.utils.Parallel;
+import zzx.utils.ZipEntryFile;
 
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
 
 import static zzx.Config.*;
 
 public class SoundModifier {
 	
 	private BunyStruct buny;
-	private File tempFile;
+	private RebuildCache cache;
 	
 	private FileInside[] fsb5Files = new FileInside[LEVEL_COUNT];
+	private Fsb5Reader[] fsb5Readers = new Fsb5Reader[LEVEL_COUNT];
 	private Fsb5Builder[] fsb5Builders = new Fsb5Builder[LEVEL_COUNT];
 	private int[] initialSizes = new int[LEVEL_COUNT];
 	
+	// index -> new sound, for the sounds which may be patched in place (see patchFsbInPlace)
+	private List<Map<Integer, Sound>> replacedByIndex = new ArrayList<>(Collections.nCopies(LEVEL_COUNT, null));
+	// set once the sound count of a level changes, so only a full rebuild will do
+	private boolean[] needRebuildFsb = new boolean[LEVEL_COUNT];
+	
 	private FileInside[] floFiles = new FileInside[LEVEL_COUNT];
 	private FloStruct[] floStructs = new FloStruct[LEVEL_COUNT];
 	
 	private boolean[] needWriteBackFsb = new boolean[LEVEL_COUNT];
 	private boolean[] needWriteBackFlo = new boolean[LEVEL_COUNT];
 	
+	// When false, every changed .fsb is rebuilt at the end of the archive (see ArchivePatch#compile)
+	private boolean patchInPlace = true;
+	
 	public SoundModifier(BunyStruct buny) throws IOException {
+		this(buny, true);
+	}
+	
+	// Without the cache, the mod sound files are never read in full (used by --plan)
+	public SoundModifier(BunyStruct buny, boolean useCache) throws IOException {
 		this.buny = buny;
-		this.tempFile = createTempFile();
+		this.cache = new RebuildCache(buny, useCache);
+	}
+	
+	public void setPatchInPlace(boolean patchInPlace) {
+		this.patchInPlace = patchInPlace;
 	}
 	
 	public String modifyBy(SoundFile soundFile) throws IOException {
-		int[] levelIndices = soundFile.getlevelIndex();
-		
+		return modifyBy(soundFile, soundFile.getlevelIndex());
+	}
+	
+	// Only for some of the levels of the sound file, e.g. those where it isn't overridden by another mod
+	public String modifyBy(SoundFile soundFile, int[] levelIndices) throws IOException {
 		int[] results = new int[levelIndices.length];
 		
 		for (int i = 0; i < levelIndices.length; i++) {
@@ -57,6 +88,8 @@ public class SoundModifier {
 				results[i] = replaceByIndex(fsb5Builders[levelIndex], initialSizes[levelIndex],
 								soundFile.getSoundIndex(), soundFile.getSounds()[0]);
 				if (results[i] == 0) {
+					cache.addReplacement(levelIndex, "index " + soundFile.getSoundIndex(), soundFile.getFiles());
+					replacedByIndex.get(levelIndex).put(soundFile.getSoundIndex(), soundFile.getSounds()[0]);
 					needWriteBackFsb[levelIndex] = true;
 				}
 			} else if (soundFile.isEventBased()) {
@@ -66,8 +99,10 @@ public class SoundModifier {
 				results[i] = replaceByEvent(fsb5Builders[levelIndex], floStructs[levelIndex],
 								soundFile.getEventName(), soundFile.getSounds());
 				if (results[i] == 0) {
+					cache.addReplacement(levelIndex, "event " + soundFile.getEventName(), soundFile.getFiles());
 					needWriteBackFlo[levelIndex] = true;
 					needWriteBackFsb[levelIndex] = true;
+					needRebuildFsb[levelIndex] = true;
 				}
 			}
 		}
@@ -97,42 +132,227 @@ public class SoundModifier {
 	}
 	
 	public void writeBackWithPrint() throws IOException {
+		// 1. small changes go straight into the embedded .fsb files
+		List<Integer> rebuilt = new ArrayList<>();
+		for (int i = 0; i < LEVEL_COUNT; i++) {
+			if (needWriteBackFsb(i) && patchInPlace && canPatchFsbInPlace(i)) {
+				System.out.print("Patching " + replacedByIndex.get(i).size() + " sound(s) of [" + LEVEL_NAMES[i] +
+						".fsb] in place......");
+				patchFsbInPlace(i);
+				System.out.println("done!");
+			} else if (needWriteBackFsb(i)) {
+				rebuilt.add(i);
+			}
+		}
+		
+		// 2. the other .fsb files are rebuilt (or copied from the cache) at the end of data.buny, all at the same time
+		long[] offsets = new long[LEVEL_COUNT];
+		long[] sizes = new long[LEVEL_COUNT];
+		File[] cached = new File[LEVEL_COUNT];
+		if (!rebuilt.isEmpty()) {
+			List<String> names = new ArrayList<>();
+			for (int i : rebuilt) {
+				cached[i] = cache.get(i, "fsb");
+				names.add(LEVEL_NAMES[i] + ".fsb" + (cached[i] != null ? " (cached)" : ""));
+			}
+			System.out.print("Writing the rebuilt [" + String.join(", ", names) + "] back to data.buny......");
+			buildFsbsAtTail(rebuilt, cached, offsets, sizes);
+			System.out.println("done!");
+		}
+		
+		// 3. only redirect the files once all of their data is in place
 		for (int i = 0; i < LEVEL_COUNT; i++) {
 			FloStruct flo = floStructs[i];
 			if (needWriteBackFlo(i)) {
-				/*
-				 * Use a file to temporarily cache the .flo content,
-				 * indirectly completing the data transfer.
-				 */
-				System.out.print("Writing the rebuilt [pc_" + LEVEL_NAMES[i] + ".flo] back to data.buny......");
-				flo.writeTo(tempFile);
-				floFiles[i].redirectTo(tempFile);
-				clearFile(tempFile);
+				// The .flo is written straight to the end of data.buny (no temporary file)
+				File cachedFlo = cache.get(i, "flo");
+				System.out.print("Writing the rebuilt [pc_" + LEVEL_NAMES[i] + ".flo" + (cachedFlo != null ? " (cached)" : "") +
+						"] back to data.buny......");
+				if (cachedFlo != null) {
+					floFiles[i].redirectTo(cachedFlo);
+				} else {
+					long contentOffset = floFiles[i].redirectTo(flo::writeTo);
+					cache.put(i, "flo", buny.getRaf(), contentOffset, floFiles[i].getSize());
+				}
 				System.out.println("done!");
 			}
 		}
 		
+		for (int i : rebuilt) {
+			fsb5Files[i].redirectTo(offsets[i], sizes[i], sizes[i]);
+		}
+	}
+	
+	/*
+	 * Prints what writeBackWithPrint() would write and adds it to the estimate, without writing
+	 * anything: the size of a rebuilt .fsb comes from the layout of its builder, and a .flo is
+	 * only written to a counter.
+	 */
+	public void planWriteBackWithPrint(WriteEstimate estimate) throws IOException {
 		for (int i = 0; i < LEVEL_COUNT; i++) {
-			Fsb5Builder fsb = fsb5Builders[i];
-			if (needWriteBackFsb(i)) {
-				/*
-				 * Directly append the data to the .buny file without using a temporary intermediate file.
-				 * However, manual file redirection is required.
-				 */
-				System.out.print("Writing the rebuilt [" + LEVEL_NAMES[i] + ".fsb] back to data.buny......");
-				LERandomAccessFile raf = buny.getRaf();
-				long offset = raf.length();
-				raf.seek(offset);
-				fsb.buildTo(raf);
-				long size = raf.getFilePointer() - offset;
-				fsb5Files[i].redirectTo(offset, size, size);
-				System.out.println("done!");
+			String name = "[" + LEVEL_NAMES[i] + ".fsb]";
+			if (needWriteBackFsb(i) && patchInPlace && canPatchFsbInPlace(i)) {
+				long bytes = 0;
+				for (int index : replacedByIndex.get(i).keySet()) {
+					bytes += fsb5Readers[i].getTableEntrySize(index) + fsb5Readers[i].getDataSlotSize(index);
+				}
+				System.out.println("  " + name + " " + replacedByIndex.get(i).size() + " sound(s) patched in place, " +
+						bytes + " bytes overwritten");
+				estimate.addOverwrite(bytes);
+			} else if (needWriteBackFsb(i)) {
+				long size = fsb5Builders[i].getBuildSize();
+				System.out.println("  " + name + " rebuilt at the end of data.buny, " +
+						fsb5Files[i].getSize() + " -> " + size + " bytes");
+				estimate.addRedirect(size);
+			}
+		}
+		
+		for (int i = 0; i < LEVEL_COUNT; i++) {
+			if (needWriteBackFlo(i)) {
+				String name = "[pc_" + LEVEL_NAMES[i] + ".flo]";
+				long[] size = new long[1];
+				floStructs[i].writeTo(new OutputStream() {
+					@Override
+					public void write(int b) {
+						size[0]++;
+					}
+					
+					@Override
+					public void write(byte[] b, int off, int len) {
+						size[0] += len;
+					}
+				});
+				long appended = floFiles[i].getRedirectSize(size[0]);
+				if (appended < 0) {
+					estimate.addProblem(name + " would be too large to be written back (" + size[0] + " bytes)");
+					continue;
+				}
+				System.out.println("  " + name + " rebuilt at the end of data.buny, " +
+						floFiles[i].getSize() + " -> " + size[0] + " bytes");
+				estimate.addRedirect(appended);
+			}
+		}
+	}
+	
+	/*
+	 * The size of every rebuilt .fsb is known before it is built (see Fsb5Builder#getBuildSize),
+	 * so consecutive regions are reserved at the end of the archive for all of them, and each one
+	 * is built into its own region by a worker thread, through its own channel on the archive.
+	 * The sources are only read with positional reads, so sharing them between threads is fine
+	 * (e.g. an event-based mod sound added to every level).
+	 * A level found in the cache is copied from there instead of being rebuilt, and a rebuilt one is
+	 * stored in the cache.
+	 */
+	private void buildFsbsAtTail(List<Integer> levels, File[] cached, long[] offsets, long[] sizes) throws IOException {
+		LERandomAccessFile raf = buny.getRaf();
+		long tailStart = raf.length();
+		
+		long end = tailStart;
+		for (int i : levels) {
+			offsets[i] = end;
+			sizes[i] = cached[i] != null ? cached[i].length() : fsb5Builders[i].getBuildSize();
+			end += sizes[i];
+		}
+		raf.setLength(end);
+		
+		Path archivePath = buny.getArchiveFile().toPath();
+		List<Callable<Void>> tasks = new ArrayList<>();
+		for (int i : levels) {
+			final int level = i;
+			tasks.add(() -> {
+				try (FileChannel out = FileChannel.open(archivePath, StandardOpenOption.WRITE)) {
+					out.position(offsets[level]);
+					if (cached[level] != null) {
+						try (FileChannel in = FileChannel.open(cached[level].toPath(), StandardOpenOption.READ)) {
+							for (long n = 0; n < sizes[level]; ) {
+								n += in.transferTo(n, sizes[level] - n, out);
+							}
+						}
+					} else {
+						fsb5Builders[level].buildTo(out);
+					}
+					if (out.position() != offsets[level] + sizes[level]) {
+						throw new IOException("The rebuilt " + LEVEL_NAMES[level] + ".fsb doesn't have the expected size");
+					}
+				}
+				if (cached[level] == null) {
+					cache.put(level, "fsb", raf, offsets[level], sizes[level]);
+				}
+				return null;
+			});
+		}
+		
+		try {
+			Parallel.invokeAll(tasks);
+		} catch (IOException | RuntimeException e) {
+			// Nothing points at the reserved regions yet, so just give them back
+			raf.setLength(tailStart);
+			throw e;
+		}
+	}
+	
+	/*
+	 * When only existing sounds of a level are replaced and each new sound fits where the old one was
+	 * (same table item size, data no larger than the old 16-byte aligned data slot), there is no need
+	 * to rebuild the whole .fsb and append it to data.buny: the table items and the data of those sounds
+	 * can be overwritten inside the embedded .fsb, which costs kilobytes of writes instead of megabytes.
+	 */
+	private boolean canPatchFsbInPlace(int levelIndex) {
+		if (needRebuildFsb[levelIndex] || fsb5Files[levelIndex].isCompressed()) {
+			return false;
+		}
+		
+		Fsb5Reader reader = fsb5Readers[levelIndex];
+		for (Map.Entry<Integer, Sound> entry : replacedByIndex.get(levelIndex).entrySet()) {
+			int index = entry.getKey();
+			Sound sound = entry.getValue();
+			if (Fsb5Builder.getTableEntrySize(sound) != reader.getTableEntrySize(index) ||
+				sound.getDataSize() > reader.getDataSlotSize(index)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private void patchFsbInPlace(int levelIndex) throws IOException {
+		Fsb5Reader reader = fsb5Readers[levelIndex];
+		long fsbOffset = fsb5Files[levelIndex].getOffset();
+		LERandomAccessFile raf = buny.getRaf();
+		
+		// 1. save the original bytes first, so that --reset can put them back
+		try (ArchiveJournal journal = ArchiveJournal.open(buny)) {
+			for (int index : replacedByIndex.get(levelIndex).keySet()) {
+				journal.save(fsbOffset + reader.getTableEntryOffset(index), reader.getTableEntrySize(index));
+				journal.save(fsbOffset + reader.getDataSlotOffset(index), (int) reader.getDataSlotSize(index));
+			}
+		}
+		
+		// 2. overwrite the table items (keeping the original data offsets) and the data slots
+		for (Map.Entry<Integer, Sound> entry : replacedByIndex.get(levelIndex).entrySet()) {
+			int index = entry.getKey();
+			Sound sound = entry.getValue();
+			
+			raf.seek(fsbOffset + reader.getTableEntryOffset(index));
+			Fsb5Builder.writeTableEntry(raf, sound, reader.getSound(index).getDataOffset());
+			
+			long dataStart = fsbOffset + reader.getDataSlotOffset(index);
+			raf.seek(dataStart);
+			sound.writeDataTo(raf);
+			raf.seek(dataStart + sound.getDataSize());
+			
+			// padding 0 up to the next sound, in place of whatever the old data left there
+			long padding = reader.getDataSlotSize(index) - sound.getDataSize();
+			byte[] zeros = new byte[(int) Math.min(padding, 0x10000)];
+			while (padding > 0) {
+				int n = (int) Math.min(padding, zeros.length);
+				raf.write(zeros, 0, n);
+				padding -= n;
 			}
 		}
 	}
 	
 	public void removeEventBy(File removeFloFile, int levelIndex) throws IOException {
-		try (BufferedReader reader = new BufferedReader(new FileReader(removeFloFile))) {
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(ZipEntryFile.openStream(removeFloFile)))) {
 			for (String line = reader.readLine();
 				 line != null;
 				 line = reader.readLine()) {
@@ -140,21 +360,24 @@ public class SoundModifier {
 					initFlo(levelIndex);
 				}
 				floStructs[levelIndex].removeEvent(line);
+				cache.addRemoval(levelIndex, line);
 			}
 		}
 	}
 	
 	private void initFsb(int i) throws IOException {
 		fsb5Files[i] = buny.getFile(FSB_NAMES[i]);
-		fsb5Builders[i] = new Fsb5Builder(cast(fsb5Files[i]));
+		cache.addOriginalFsb(i, fsb5Files[i]);
+		fsb5Readers[i] = cast(fsb5Files[i]);
+		fsb5Builders[i] = new Fsb5Builder(fsb5Readers[i]);
 		initialSizes[i] = fsb5Builders[i].getSoundCount();
+		replacedByIndex.set(i, new TreeMap<>());
 	}
 	
 	private void initFlo(int i) throws IOException {
 		floFiles[i] = buny.getFile(FLO_NAMES[i]);
-		floFiles[i].extractTo(tempFile);
-		floStructs[i] = new FloStruct(tempFile);
-		clearFile(tempFile);
+		// Parsed straight from data.buny, decompressing on the fly if needed
+		floStructs[i] = new FloStruct(cache.addOriginalFlo(i, floFiles[i].openStream()));
 	}
 	
 	private static int replaceByIndex(Fsb5Builder fsb, int maxIndex, int index, Sound sound) {
@@ -252,18 +475,6 @@ public class SoundModifier {
 
 
 	
-	private static File createTempFile() throws IOException {
-		File tempFile = File.createTempFile("modLoader-", ".tmp");
-		tempFile.deleteOnExit();
-		return tempFile;
-	}
-	
-	private static void clearFile(File file) throws IOException {
-        try (LERandomAccessFile raf = new LERandomAccessFile(file, "rw")) {
-            raf.setLength(0);
-        }
-    }
-	
 	private static Fsb5Reader cast(FileInside file) throws IOException {
 	    /*
 	     * .fsb files within .buny archives are stored uncompressed (not zstd-compressed), 
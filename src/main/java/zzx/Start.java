@@ -57,6 +57,15 @@ public class Start {
 					throw new IllegalUsageException("Wrong number of parameters");
 				}
 				break;
+			case "--plan":
+				if (args.length == 0) {
+					plan();
+				} else if (args.length == 1) {
+					plan(args[0]);
+				} else {
+					throw new IllegalUsageException("Wrong number of parameters");
+				}
+				break;
 			case "-r":
 			case "--reset":
 				if (args.length == 0) {
@@ -74,6 +83,65 @@ public class Start {
 					throw new IllegalUsageException("Wrong number of parameters");
 				}
 				break;
+			case "--snapshot-toc":
+				if (args.length == 2) {
+					snapshotToc(args[0], args[1]);
+				} else {
+					throw new IllegalUsageException("Wrong number of parameters");
+				}
+				break;
+			case "--manifest":
+				if (args.length == 2) {
+					writeManifest(args[0], args[1]);
+				} else {
+					throw new IllegalUsageException("Wrong number of parameters");
+				}
+				break;
+			case "--verify":
+				if (args.length == 2) {
+					verify(args[0], args[1], false);
+				} else if (args.length == 3 && "--quick".equalsIgnoreCase(args[2])) {
+					verify(args[0], args[1], true);
+				} else {
+					throw new IllegalUsageException("Wrong number of parameters");
+				}
+				break;
+			case "--diff":
+				boolean checkContent = Arrays.asList(args).contains("--content");
+				String[] paths = Arrays.stream(args)
+						.filter(arg -> !"--content".equals(arg))
+						.toArray(String[]::new);
+				if (paths.length == 2) {
+					diff(paths[0], paths[1], null, checkContent);
+				} else if (paths.length == 3) {
+					diff(paths[0], paths[1], paths[2], checkContent);
+				} else {
+					throw new IllegalUsageException("Wrong number of parameters");
+				}
+				break;
+			case "--make-patch":
+				if (args.length == 3) {
+					makePatch(args[0], args[1], args[2]);
+				} else {
+					throw new IllegalUsageException("Wrong number of parameters");
+				}
+				break;
+			case "--compile-mod":
+				if (args.length == 3) {
+					compileMod(args[0], args[1], args[2]);
+				} else {
+					throw new IllegalUsageException("Wrong number of parameters");
+				}
+				break;
+			case "--apply-patch":
+				if (args.length == 1) {
+					applyPatch(getDefaultDataBunyPath(), args[0]);
+				} else if (args.length == 2) {
+					applyPatch(args[0], args[1]);
+				} else {
+					throw new IllegalUsageException("Wrong number of parameters");
+				}
+				break;
 			case "-s":
 			case "--split":
 				if (args.length == 2) {
@@ -126,6 +194,26 @@ public class Start {
        	}
     }
     
+    // What modify() would do, the archives are only read
+    public static void plan() throws IOException {
+    	try (BunyStruct dataBuny = new BunyStruct(getDefaultDataBunyPath(), "r");
+    		 BunyStruct data1Buny = new BunyStruct(getDefaultData1BunyPath(), "r")) {
+    		Driver.loadInfo(dataBuny);
+    		Driver.loadInfo(data1Buny);
+    		Driver.plan(dataBuny, data1Buny, getDefaultModsPath());
+    	}
+    }
+    
+    // What modify(modPath) would do, the archives are only read
+    public static void plan(String modPath) throws IOException {
+    	try (BunyStruct dataBuny = new BunyStruct(getDefaultDataBunyPath(), "r");
+    		 BunyStruct data1Buny = new BunyStruct(getDefaultData1BunyPath(), "r")) {
+    		Driver.loadInfo(dataBuny);
+    		Driver.loadInfo(data1Buny);
+    		Driver.plan(dataBuny, data1Buny, new File(modPath));
+    	}
+    }
+    
     public static void reset() throws IOException {
     	reset(getDefaultDataBunyPath());
     	reset(getDefaultData1BunyPath());
@@ -152,6 +240,55 @@ public class Start {
 		}
 	}
     
+    public static void snapshotToc(String bunyFilePath, String outputFile) throws IOException {
+    	try (BunyStruct buny = new BunyStruct(bunyFilePath)) {
+    		Driver.snapshotToc(buny, outputFile);
+    	}
+    }
+    
+    public static void writeManifest(String bunyFilePath, String outputFile) throws IOException {
+    	try (BunyStruct buny = new BunyStruct(bunyFilePath, "r")) {
+    		Driver.loadInfo(buny);
+    		Driver.writeManifest(buny, outputFile);
+    	}
+    }
+    
+    public static void verify(String bunyFilePath, String manifestFile, boolean quick) throws IOException {
+    	try (BunyStruct buny = new BunyStruct(bunyFilePath, "r")) {
+    		Driver.loadInfo(buny);
+    		Driver.verify(buny, manifestFile, quick);
+    	}
+    }
+    
+    public static void diff(String oldBunyPath, String newBunyPath, String outputFile, boolean checkContent) throws IOException {
+    	try (BunyStruct oldBuny = new BunyStruct(oldBunyPath, "r");
+    		 BunyStruct newBuny = new BunyStruct(newBunyPath, "r")) {
+    		Driver.loadInfo(oldBuny);
+    		Driver.loadInfo(newBuny);
+    		Driver.diff(oldBuny, newBuny, outputFile, checkContent);
+    	}
+    }
+    
+    public static void makePatch(String pristineBunyPath, String moddedBunyPath, String patchFile) throws IOException {
+    	try (BunyStruct base = new BunyStruct(pristineBunyPath);
+    		 BunyStruct modded = new BunyStruct(moddedBunyPath)) {
+    		Driver.makePatch(base, modded, patchFile);
+    	}
+    }
+    
+    public static void compileMod(String bunyFilePath, String modPath, String bundleFile) throws IOException {
+    	try (BunyStruct buny = new BunyStruct(bunyFilePath)) {
+    		Driver.loadInfo(buny);
+    		Driver.compileMod(buny, modPath, bundleFile);
+    	}
+    }
+    
+    public static void applyPatch(String bunyFilePath, String patchFile) throws IOException {
+    	try (BunyStruct buny = new BunyStruct(bunyFilePath)) {
+    		Driver.applyPatch(buny, patchFile);
+    	}
+    }
+    
     public static void split(String fsbFile, String outputPath) throws IOException {
     	Driver.split(fsbFile, outputPath);
     }
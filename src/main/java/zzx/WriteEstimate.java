@@ -0,0 +1,50 @@
+package zzx;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * What --plan expects --modify to write to one archive, added up without writing anything.
+ */
+public class WriteEstimate {
+
+	// TOC entries which would point at new content appended to the archive
+	private int redirected;
+	private long appended;
+
+	// Bytes overwritten inside the archive (sounds patched in place)
+	private long overwritten;
+
+	// What would make --modify fail
+	private List<String> problems = new ArrayList<>();
+
+	public void addRedirect(long appendedBytes) {
+		redirected++;
+		appended += appendedBytes;
+	}
+
+	public void addOverwrite(long bytes) {
+		overwritten += bytes;
+	}
+
+	public void addProblem(String problem) {
+		problems.add(problem);
+	}
+
+	public int getRedirected() {
+		return redirected;
+	}
+
+	public long getAppended() {
+		return appended;
+	}
+
+	public long getOverwritten() {
+		return overwritten;
+	}
+
+	public List<String> getProblems() {
+		return Collections.unmodifiableList(problems);
+	}
+}
@@ -0,0 +1,126 @@
+package zzx.buny;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/*
+ * The differences between the catalogues of two .buny archives, joined by file name.
+ *
+ * Without a content check, the result only depends on the TOC entries:
+ *   ADDED / REMOVED : the name only exists in the new / old archive
+ *   RESIZED         : size or zsize differ, so the stored bytes differ for sure
+ *   RELOCATED       : same sizes, different offset
+ *   (same sizes and same offset is considered unchanged and isn't listed)
+ *
+ * With a content check, the stored bytes of every file whose sizes are equal are hashed
+ * in both archives, and the ones whose checksums differ are reported as CHANGED instead.
+ */
+public class ArchiveDiff {
+
+	public enum Status {
+		ADDED, REMOVED, RESIZED, RELOCATED, CHANGED
+	}
+
+	public static class Entry {
+		public final Status status;
+		public final FileInside oldFile;	// null if ADDED
+		public final FileInside newFile;	// null if REMOVED
+
+		Entry(Status status, FileInside oldFile, FileInside newFile) {
+			this.status = status;
+			this.oldFile = oldFile;
+			this.newFile = newFile;
+		}
+
+		public String getName() {
+			return oldFile != null ? oldFile.getName() : newFile.getName();
+		}
+	}
+
+	private final List<Entry> entries;
+	private final int compared;
+
+	private ArchiveDiff(List<Entry> entries, int compared) {
+		this.entries = entries;
+		this.compared = compared;
+	}
+
+	/**
+	 * Compares two archives. All files of both archives must have been loaded.
+	 *
+	 * @param checkContent whether to hash the files whose TOC entries alone can't tell a difference
+	 */
+	public static ArchiveDiff compute(BunyStruct oldBuny, BunyStruct newBuny, boolean checkContent) throws IOException {
+		List<Entry> entries = new ArrayList<>();
+		List<FileInside> sameSizeOld = new ArrayList<>();
+		List<FileInside> sameSizeNew = new ArrayList<>();
+		Set<String> seen = new HashSet<>();
+
+		// One pass over the old catalogue, looking each name up in the new one
+		for (FileInside oldFile : oldBuny.getAllFiles()) {
+			FileInside newFile = newBuny.getFile(oldFile.getName());
+			if (newFile == null) {
+				entries.add(new Entry(Status.REMOVED, oldFile, null));
+				continue;
+			}
+			seen.add(oldFile.getName());
+
+			if (oldFile.getSize() != newFile.getSize() || oldFile.getZsize() != newFile.getZsize()) {
+				entries.add(new Entry(Status.RESIZED, oldFile, newFile));
+			} else if (checkContent) {
+				sameSizeOld.add(oldFile);
+				sameSizeNew.add(newFile);
+			} else if (oldFile.getOffset() != newFile.getOffset()) {
+				entries.add(new Entry(Status.RELOCATED, oldFile, newFile));
+			}
+		}
+
+		// Whatever was not matched in the new catalogue is new
+		for (FileInside newFile : newBuny.getAllFiles()) {
+			if (!seen.contains(newFile.getName())) {
+				entries.add(new Entry(Status.ADDED, null, newFile));
+			}
+		}
+
+		if (checkContent && !sameSizeOld.isEmpty()) {
+			int[] oldCrcs = ArchiveHasher.hashStoredBytes(oldBuny, sameSizeOld.toArray(new FileInside[0]));
+			int[] newCrcs = ArchiveHasher.hashStoredBytes(newBuny, sameSizeNew.toArray(new FileInside[0]));
+			for (int i = 0; i < oldCrcs.length; i++) {
+				FileInside oldFile = sameSizeOld.get(i);
+				FileInside newFile = sameSizeNew.get(i);
+				if (oldCrcs[i] != newCrcs[i]) {
+					entries.add(new Entry(Status.CHANGED, oldFile, newFile));
+				} else if (oldFile.getOffset() != newFile.getOffset()) {
+					entries.add(new Entry(Status.RELOCATED, oldFile, newFile));
+				}
+			}
+		}
+
+		return new ArchiveDiff(Collections.unmodifiableList(entries), sameSizeOld.size());
+	}
+
+	public List<Entry> getEntries() {
+		return entries;
+	}
+
+	/**
+	 * @return the number of files whose contents were hashed and compared
+	 */
+	public int getComparedCount() {
+		return compared;
+	}
+
+	public int count(Status status) {
+		int count = 0;
+		for (Entry entry : entries) {
+			if (entry.status == status) {
+				count++;
+			}
+		}
+		return count;
+	}
+}
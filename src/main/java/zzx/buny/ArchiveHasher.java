@@ -0,0 +1,154 @@
+package zzx.buny;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.zip.CRC32C;
+
+import zzx.utils.LERandomAccessFile;
+import zzx.utils.Parallel;
+
+/*
+ * Computes CRC32C checksums of byte ranges of an archive.
+ *
+ * The ranges are visited in offset order and split into tasks each covering about TASK_SIZE
+ * bytes of the file, which are hashed concurrently. Inside a task the file is read in windows
+ * of up to READ_SIZE bytes, so files stored back to back (the usual case in a .buny archive)
+ * cost one positional read per window instead of one read per file. A window only reads past
+ * the end of a range when the next range follows within MAX_GAP bytes, so sparse ranges (the
+ * sampled headers of --verify --quick) do not read the bytes between them.
+ */
+public class ArchiveHasher {
+
+	private static final int READ_SIZE = 8 << 20;		// 8MB per read
+	private static final long TASK_SIZE = 64L << 20;	// about 64MB of the file per task
+	private static final int MAX_GAP = 64 << 10;		// smaller gaps are read through
+
+	private ArchiveHasher() {}
+
+	/**
+	 * Hashes the raw stored bytes ({@code [offset, offset + zsize)}) of the given files.
+	 *
+	 * @return the checksum of each file, in the same order as {@code files}
+	 */
+	public static int[] hashStoredBytes(BunyStruct buny, FileInside... files) throws IOException {
+		long[] offsets = new long[files.length];
+		long[] lengths = new long[files.length];
+		for (int i = 0; i < files.length; i++) {
+			offsets[i] = files[i].getOffset();
+			lengths[i] = files[i].getZsize();
+		}
+		return hashRanges(buny.getRaf(), offsets, lengths);
+	}
+
+	/**
+	 * Hashes the ranges {@code [offsets[i], offsets[i] + lengths[i])} of the file.
+	 *
+	 * @return the checksum of each range, in the same order as the arguments
+	 */
+	public static int[] hashRanges(LERandomAccessFile raf, long[] offsets, long[] lengths) throws IOException {
+		Integer[] order = new Integer[offsets.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, Comparator.comparingLong(i -> offsets[i]));
+
+		// Split the sorted ranges into tasks covering roughly equal spans of the file
+		List<Callable<Void>> tasks = new ArrayList<>();
+		int[] hashes = new int[offsets.length];
+		int taskStart = 0;
+		long taskFrom = 0;
+		long taskTo = 0;
+		for (int i = 0; i < order.length; i++) {
+			int range = order[i];
+			if (i == taskStart) {
+				taskFrom = offsets[range];
+				taskTo = offsets[range];
+			}
+			taskTo = Math.max(taskTo, offsets[range] + lengths[range]);
+			if (taskTo - taskFrom >= TASK_SIZE || i == order.length - 1) {
+				int[] taskOrder = new int[i + 1 - taskStart];
+				for (int j = 0; j < taskOrder.length; j++) {
+					taskOrder[j] = order[taskStart + j];
+				}
+				tasks.add(() -> {
+					hashTask(raf, offsets, lengths, taskOrder, hashes);
+					return null;
+				});
+				taskStart = i + 1;
+			}
+		}
+
+		Parallel.invokeAll(tasks);
+		return hashes;
+	}
+
+	/**
+	 * Hashes a single range of the file.
+	 */
+	public static int hashRange(LERandomAccessFile raf, long offset, long length) throws IOException {
+		return hashRanges(raf, new long[] {offset}, new long[] {length})[0];
+	}
+
+	/**
+	 * Hashes the whole TOC of the archive.
+	 */
+	public static int hashToc(BunyStruct buny) throws IOException {
+		return hashRange(buny.getRaf(), buny.getTocOffset(), buny.getTocSize());
+	}
+
+	private static void hashTask(LERandomAccessFile raf, long[] offsets, long[] lengths,
+			int[] taskOrder, int[] hashes) throws IOException {
+		long taskEnd = 0;
+		for (int i : taskOrder) {
+			taskEnd = Math.max(taskEnd, offsets[i] + lengths[i]);
+		}
+
+		ByteBuffer window = ByteBuffer.allocate((int) Math.min(READ_SIZE, Math.max(1, taskEnd - offsets[taskOrder[0]])));
+		long windowStart = 0;
+		long windowEnd = 0;	// empty window
+
+		CRC32C crc = new CRC32C();
+		for (int k = 0; k < taskOrder.length; k++) {
+			int i = taskOrder[k];
+			crc.reset();
+			long pos = offsets[i];
+			long end = pos + lengths[i];
+			while (pos < end) {
+				if (pos < windowStart || pos >= windowEnd) {
+					// Refill the window, starting at the first byte still needed
+					window.clear();
+					window.limit((int) (readEnd(offsets, lengths, taskOrder, k, pos + window.capacity()) - pos));
+					raf.readFully(window, pos);
+					windowStart = pos;
+					windowEnd = pos + window.limit();
+				}
+				int from = (int) (pos - windowStart);
+				int to = (int) (Math.min(end, windowEnd) - windowStart);
+				crc.update(window.array(), from, to - from);
+				pos = windowStart + to;
+			}
+			hashes[i] = (int) crc.getValue();
+		}
+	}
+
+	/*
+	 * The end of a read starting in the k-th range of the task: the end of that range, extended
+	 * over the following ranges as long as each starts within MAX_GAP bytes, but not past limit.
+	 */
+	private static long readEnd(long[] offsets, long[] lengths, int[] taskOrder, int k, long limit) {
+		long end = offsets[taskOrder[k]] + lengths[taskOrder[k]];
+		for (int n = k + 1; n < taskOrder.length && end < limit; n++) {
+			int next = taskOrder[n];
+			if (offsets[next] - end > MAX_GAP) {
+				break;
+			}
+			end = Math.max(end, offsets[next] + lengths[next]);
+		}
+		return Math.min(end, limit);
+	}
+}
@@ -0,0 +1,233 @@
+package zzx.buny;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import zzx.utils.LERandomAccessFile;
+
+/*
+ * An undo log for the bytes of an archive which are overwritten in place.
+ *
+ * Most changes only append to an archive and redirect TOC entries, which --reset undoes by
+ * restoring the TOC and truncating the archive. A change made in place (e.g. a sound patched
+ * inside a level .fsb, see SoundModifier) leaves the TOC untouched, so the bytes it overwrites
+ * are first saved to a journal next to the archive ("data.buny.journal"):
+ *
+ *   0x00  "BunyJrnl"          8-byte magic
+ *   0x08  version             int, currently 1
+ *   0x0C  records             (long offset, int length, length bytes of original data) ...
+ *
+ * A record with offset -1 holds the original length of the archive (a long) instead: replaying
+ * it cuts off whatever was appended since. --compile-mod uses one, along with a record of the
+ * whole TOC, to roll back the mod it applies temporarily (see ArchivePatch#compile).
+ *
+ * Every record is forced to disk before the archive is written, and the records are replayed
+ * in reverse order, so a region overwritten several times ends up with its original bytes.
+ * All numbers are little-endian, like in the archive itself.
+ */
+public class ArchiveJournal implements Closeable {
+
+	private static final String MAGIC = "BunyJrnl";
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 0x0C;
+	private static final int RECORD_HEADER_SIZE = 8 + 4;
+	private static final long LENGTH_RECORD = -1;
+
+	private final BunyStruct buny;
+	private final FileChannel channel;
+	private int records = 0;
+
+	private ArchiveJournal(BunyStruct buny, FileChannel channel) {
+		this.buny = buny;
+		this.channel = channel;
+	}
+
+	public static File journalFileOf(BunyStruct buny) {
+		return new File(buny.getArchiveFile().getPath() + ".journal");
+	}
+
+	/**
+	 * @return whether some bytes of this archive have been overwritten in place since its last reset
+	 */
+	public static boolean exists(BunyStruct buny) {
+		return journalFileOf(buny).isFile();
+	}
+
+	/**
+	 * Opens the journal of an archive for appending, creating it if needed.
+	 */
+	public static ArchiveJournal open(BunyStruct buny) throws IOException {
+		File journalFile = journalFileOf(buny);
+		FileChannel channel = FileChannel.open(journalFile.toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			if (channel.size() == 0) {
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+				header.put(MAGIC.getBytes(StandardCharsets.US_ASCII)).putInt(VERSION).flip();
+				channel.write(header, 0);
+			} else {
+				checkHeader(channel, journalFile);
+			}
+			channel.position(channel.size());
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+		return new ArchiveJournal(buny, channel);
+	}
+
+	/**
+	 * Saves the current content of a region of the archive, before it is overwritten.
+	 * The record is on disk when this method returns.
+	 */
+	public void save(long offset, int length) throws IOException {
+		ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + length).order(ByteOrder.LITTLE_ENDIAN);
+		record.putLong(offset).putInt(length);
+		buny.getRaf().readFully(record, offset);
+		write(record);
+	}
+
+	/**
+	 * Saves the current length of the archive, before data is appended to it.
+	 * The record is on disk when this method returns.
+	 */
+	public void saveLength() throws IOException {
+		ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + 8).order(ByteOrder.LITTLE_ENDIAN);
+		record.putLong(LENGTH_RECORD).putInt(8).putLong(buny.getLength());
+		write(record);
+	}
+
+	private void write(ByteBuffer record) throws IOException {
+		record.flip();
+		while (record.hasRemaining()) {
+			channel.write(record);
+		}
+		channel.force(false);
+		records++;
+	}
+
+	/**
+	 * @return the number of regions saved through this instance
+	 */
+	public int getRecordCount() {
+		return records;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * @return whether the journal saves bytes of the files themselves, not only the TOC and the
+	 *         length of the archive (false if there is no journal)
+	 */
+	public static boolean patchedInPlace(BunyStruct buny) throws IOException {
+		File journalFile = journalFileOf(buny);
+		if (!journalFile.isFile()) {
+			return false;
+		}
+
+		try (FileChannel channel = FileChannel.open(journalFile.toPath(), StandardOpenOption.READ)) {
+			checkHeader(channel, journalFile);
+
+			long position = HEADER_SIZE;
+			ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			while (position + RECORD_HEADER_SIZE <= channel.size()) {
+				recordHeader.clear();
+				readFully(channel, recordHeader, position);
+				long offset = recordHeader.getLong(0);
+				int length = recordHeader.getInt(8);
+				if (length < 0) {
+					break;
+				}
+				if (offset != LENGTH_RECORD && (offset < buny.getTocOffset() ||
+						offset + length > buny.getTocOffset() + buny.getTocSize())) {
+					return true;
+				}
+				position += RECORD_HEADER_SIZE + length;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Writes every region saved in the journal back into the archive, then deletes the journal.
+	 *
+	 * @return the number of regions restored (0 if there is no journal)
+	 */
+	public static int restore(BunyStruct buny) throws IOException {
+		File journalFile = journalFileOf(buny);
+		if (!journalFile.isFile()) {
+			return 0;
+		}
+
+		List<Long> offsets = new ArrayList<>();
+		List<byte[]> contents = new ArrayList<>();
+		try (FileChannel channel = FileChannel.open(journalFile.toPath(), StandardOpenOption.READ)) {
+			checkHeader(channel, journalFile);
+
+			long position = HEADER_SIZE;
+			ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			while (position + RECORD_HEADER_SIZE <= channel.size()) {
+				recordHeader.clear();
+				readFully(channel, recordHeader, position);
+				long offset = recordHeader.getLong(0);
+				int length = recordHeader.getInt(8);
+				position += RECORD_HEADER_SIZE;
+
+				if (length < 0 || position + length > channel.size()) {
+					// A record cut short by a crash: its region was never overwritten
+					break;
+				}
+				ByteBuffer content = ByteBuffer.allocate(length);
+				readFully(channel, content, position);
+				position += length;
+
+				offsets.add(offset);
+				contents.add(content.array());
+			}
+		}
+
+		LERandomAccessFile raf = buny.getRaf();
+		for (int i = offsets.size() - 1; i >= 0; i--) {
+			if (offsets.get(i) == LENGTH_RECORD) {
+				buny.setNewLength(ByteBuffer.wrap(contents.get(i)).order(ByteOrder.LITTLE_ENDIAN).getLong());
+			} else {
+				raf.seek(offsets.get(i));
+				raf.write(contents.get(i));
+			}
+		}
+
+		if (!journalFile.delete()) {
+			throw new IOException("Unable to delete the journal: " + journalFile);
+		}
+		return offsets.size();
+	}
+
+	private static void checkHeader(FileChannel channel, File journalFile) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(channel, header, 0);
+		byte[] magic = new byte[MAGIC.length()];
+		header.get(0, magic);
+		if (!MAGIC.equals(new String(magic, StandardCharsets.US_ASCII)) || header.getInt(8) != VERSION) {
+			throw new IOException("Not a valid journal file: " + journalFile);
+		}
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer dst, long position) throws IOException {
+		while (dst.hasRemaining()) {
+			int n = channel.read(dst, position);
+			if (n < 0) throw new IOException("Unexpected EOF");
+			position += n;
+		}
+	}
+}
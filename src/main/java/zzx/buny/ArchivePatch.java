@@ -0,0 +1,311 @@
+package zzx.buny;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+import zzx.utils.IllegalUsageException;
+import zzx.utils.LERandomAccessFile;
+
+/*
+ * A patch turning a pristine .buny archive into a modified one.
+ *
+ * --modify mostly leaves the original bytes of an archive alone: it appends new blobs after the
+ * original end and rewrites TOC entries to point at them. The exception is a level .fsb whose
+ * sounds are patched in place (see SoundModifier and ArchiveJournal), which a patch can't describe,
+ * so such an archive is refused. Otherwise the whole difference is a list of TOC entries plus
+ * the appended tail, which is what a patch stores:
+ *
+ *   0x00  "BunyPtch"          8-byte magic
+ *   0x08  version             int, currently 1
+ *   0x0C  baseTocCrc          int, CRC32C of the TOC of the pristine archive
+ *   0x10  resultTocCrc        int, CRC32C of the TOC after applying the patch
+ *   0x14  entryCount          int
+ *   0x18  baseLength          long, length of the pristine archive (where the tail starts)
+ *   0x20  tocOffset           long
+ *   0x28  tocSize             long
+ *   0x30  tailLength          long
+ *   0x38  entries             entryCount * (int index, long size, long offset, long zsize)
+ *   ...   tail                tailLength bytes, written at baseLength
+ *
+ * Only the blobs still referenced by the TOC are kept in the tail, so blobs made dead by
+ * later mods (e.g. a level .fsb rebuilt twice) are dropped and the entries are rebased.
+ * All numbers are little-endian, like in the archive itself.
+ *
+ * A patch can also be compiled straight from a mod (see compile()), without keeping a
+ * pristine copy of the archive around: it's then a precompiled mod, whose files are already
+ * laid out (with the header of a compressed file where needed) and only have to be copied.
+ */
+public class ArchivePatch {
+
+	private static final String MAGIC = "BunyPtch";
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 0x38;
+	private static final int ENTRY_SIZE = 4 + 8 + 8 + 8;
+
+	private ArchivePatch() {}
+
+	/**
+	 * Writes a patch holding the differences between a pristine archive and a modified copy of it.
+	 *
+	 * @return the number of TOC entries stored in the patch
+	 */
+	public static int create(BunyStruct base, BunyStruct modded, File patchFile) throws IOException {
+		if (base.getTocOffset() != modded.getTocOffset() || base.getTocSize() != modded.getTocSize() ||
+			base.getLength() > modded.getLength()) {
+			throw new IllegalUsageException("The modified archive isn't based on the given pristine archive");
+		}
+
+		if (ArchiveJournal.exists(base)) {
+			throw patchedInPlace(base);
+		}
+		if (ArchiveJournal.exists(modded)) {
+			throw patchedInPlace(modded);
+		}
+		
+		return create(readToc(base), base.getLength(), modded, patchFile);
+	}
+	
+	/**
+	 * Changes made to an archive by {@link #compile(BunyStruct, Changes, File)}.
+	 */
+	public interface Changes {
+		void applyTo(BunyStruct buny) throws IOException;
+	}
+	
+	/**
+	 * Writes a patch holding the changes made by {@code changes} to a pristine archive, e.g. applying
+	 * a mod. The changes are made to the archive itself, which is put back as it was afterwards
+	 * (whether they succeed or not): its TOC is rewritten and the appended data is cut off.
+	 * The original TOC and length are saved to the journal of the archive first, so if the
+	 * process dies before that, --reset still puts the archive back.
+	 * <p>
+	 * The changes must only append data and redirect files, not patch them in place.
+	 *
+	 * @return the number of TOC entries stored in the patch
+	 */
+	public static int compile(BunyStruct buny, Changes changes, File patchFile) throws IOException {
+		if (ArchiveJournal.exists(buny)) {
+			throw patchedInPlace(buny);
+		}
+		
+		long baseLength = buny.getLength();
+		ByteBuffer baseToc = readToc(buny);
+		try {
+			try (ArchiveJournal journal = ArchiveJournal.open(buny)) {
+				journal.saveLength();
+				journal.save(buny.getTocOffset(), (int) buny.getTocSize());
+			}
+			changes.applyTo(buny);
+			return create(baseToc, baseLength, buny, patchFile);
+		} finally {
+			// Point the files back to their original data, drop what was appended, then the journal
+			ArchiveJournal.restore(buny);
+		}
+	}
+	
+	private static int create(ByteBuffer baseToc, long baseLength, BunyStruct modded, File patchFile) throws IOException {
+		ByteBuffer moddedToc = readToc(modded);
+		int count = (int) modded.getFileCount();
+
+		// 1. the TOC entries that differ
+		List<Integer> changed = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			int entry = i * 0x28;
+			if (baseToc.getLong(entry + 0x08) != moddedToc.getLong(entry + 0x08) ||
+				baseToc.getLong(entry + 0x18) != moddedToc.getLong(entry + 0x18) ||
+				baseToc.getLong(entry + 0x20) != moddedToc.getLong(entry + 0x20)) {
+				changed.add(i);
+			}
+		}
+
+		// 2. the live tail blobs, sorted by offset and merged when they touch or overlap
+		List<long[]> blobs = new ArrayList<>();	// {offset, end}
+		for (int i : changed) {
+			long offset = moddedToc.getLong(i * 0x28 + 0x18);
+			long zsize = moddedToc.getLong(i * 0x28 + 0x20);
+			if (offset >= baseLength) {
+				blobs.add(new long[] {offset, offset + zsize});
+			} else if (offset + zsize > baseLength) {
+				throw new IOException("A file straddles the end of the pristine archive: index " + i);
+			}
+		}
+		blobs.sort((a, b) -> Long.compare(a[0], b[0]));
+
+		List<long[]> ranges = new ArrayList<>();
+		for (long[] blob : blobs) {
+			long[] last = ranges.isEmpty() ? null : ranges.get(ranges.size() - 1);
+			if (last != null && blob[0] <= last[1]) {
+				last[1] = Math.max(last[1], blob[1]);
+			} else {
+				ranges.add(new long[] {blob[0], blob[1]});
+			}
+		}
+
+		long tailLength = 0;
+		long[] rangeStarts = new long[ranges.size()];	// position of each range in the new tail
+		for (int r = 0; r < ranges.size(); r++) {
+			rangeStarts[r] = baseLength + tailLength;
+			tailLength += ranges.get(r)[1] - ranges.get(r)[0];
+		}
+
+		// 3. rebase the entries onto the compacted tail, and checksum the resulting TOC
+		ByteBuffer resultToc = ByteBuffer.wrap(baseToc.array().clone()).order(ByteOrder.LITTLE_ENDIAN);
+		ByteBuffer entries = ByteBuffer.allocate(changed.size() * ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		for (int i : changed) {
+			int entry = i * 0x28;
+			long size = moddedToc.getLong(entry + 0x08);
+			long offset = moddedToc.getLong(entry + 0x18);
+			long zsize = moddedToc.getLong(entry + 0x20);
+			if (offset >= baseLength) {
+				int r = findRange(ranges, offset);
+				offset = rangeStarts[r] + (offset - ranges.get(r)[0]);
+			}
+			entries.putInt(i).putLong(size).putLong(offset).putLong(zsize);
+			resultToc.putLong(entry + 0x08, size);
+			resultToc.putLong(entry + 0x18, offset);
+			resultToc.putLong(entry + 0x20, zsize);
+		}
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		header.put(MAGIC.getBytes(StandardCharsets.US_ASCII));
+		header.putInt(VERSION);
+		header.putInt(crc(baseToc));
+		header.putInt(crc(resultToc));
+		header.putInt(changed.size());
+		header.putLong(baseLength);
+		header.putLong(modded.getTocOffset());
+		header.putLong(modded.getTocSize());
+		header.putLong(tailLength);
+
+		// 4. write everything in one forward pass
+		try (LERandomAccessFile out = new LERandomAccessFile(patchFile, "rw")) {
+			out.setLength(0);
+			out.write(header.array());
+			out.write(entries.array());
+			LERandomAccessFile raf = modded.getRaf();
+			for (long[] range : ranges) {
+				raf.transferTo(out, range[0], range[1] - range[0]);
+			}
+		}
+
+		return changed.size();
+	}
+
+	/**
+	 * Applies a patch to a pristine archive: the tail is written with one sequential transfer,
+	 * then the whole TOC is rewritten with one write.
+	 *
+	 * @return the number of TOC entries changed
+	 */
+	public static int apply(BunyStruct buny, File patchFile) throws IOException {
+		try (LERandomAccessFile patch = new LERandomAccessFile(patchFile, "r")) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			patch.readFully(header, 0);
+			header.flip();
+
+			byte[] magic = new byte[MAGIC.length()];
+			header.get(magic);
+			if (!MAGIC.equals(new String(magic, StandardCharsets.US_ASCII))) {
+				throw new IllegalUsageException("Not a patch file: " + patchFile);
+			}
+			int version = header.getInt();
+			if (version != VERSION) {
+				throw new IllegalUsageException("Unsupported patch version: " + version);
+			}
+			int baseTocCrc = header.getInt();
+			int resultTocCrc = header.getInt();
+			int count = header.getInt();
+			long baseLength = header.getLong();
+			long tocOffset = header.getLong();
+			long tocSize = header.getLong();
+			long tailLength = header.getLong();
+
+			if (buny.getTocOffset() != tocOffset || buny.getTocSize() != tocSize) {
+				throw new IllegalUsageException("This patch was made for a different archive");
+			}
+
+			ByteBuffer toc = readToc(buny);
+			if (crc(toc) != baseTocCrc || buny.getLength() < baseLength || ArchiveJournal.exists(buny)) {
+				throw new IllegalUsageException(
+					"The archive doesn't match the base of this patch. " +
+					"If it has been modified, please reset it first.");
+			}
+			// Every entry changes a different file, so there can't be more of them than files
+			// (which also keeps count * ENTRY_SIZE below the TOC size, well within an int)
+			long fileCount = buny.getFileCount();
+			if (count < 0 || count > fileCount || tailLength < 0 ||
+				patch.length() != HEADER_SIZE + (long) count * ENTRY_SIZE + tailLength) {
+				throw new IOException("The patch file is truncated or damaged: " + patchFile);
+			}
+
+			ByteBuffer entries = ByteBuffer.allocate(count * ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			patch.readFully(entries, HEADER_SIZE);
+			entries.flip();
+			for (int i = 0; i < count; i++) {
+				int index = entries.getInt();
+				if (index < 0 || index >= fileCount) {
+					throw new IOException("The patch file is damaged (no file at index " + index + "): " + patchFile);
+				}
+				int entry = index * 0x28;
+				toc.putLong(entry + 0x08, entries.getLong());	// size
+				toc.putLong(entry + 0x18, entries.getLong());	// offset
+				toc.putLong(entry + 0x20, entries.getLong());	// zsize
+			}
+			if (crc(toc) != resultTocCrc) {
+				throw new IOException("The patch file is damaged (unexpected TOC checksum): " + patchFile);
+			}
+
+			// Drop whatever was left after the original end, then append the tail in one go
+			LERandomAccessFile raf = buny.getRaf();
+			raf.setLength(baseLength);
+			raf.seek(baseLength);
+			patch.transferTo(raf, HEADER_SIZE + (long) count * ENTRY_SIZE, tailLength);
+
+			// Only redirect the files once their data is in place
+			raf.seek(tocOffset);
+			raf.write(toc.array());
+			return count;
+		}
+	}
+
+	// Bytes patched in place don't show up in the TOC, so a patch can't carry them
+	private static IllegalUsageException patchedInPlace(BunyStruct buny) {
+		return new IllegalUsageException(
+			"Some changes to this archive are recorded in " + ArchiveJournal.journalFileOf(buny).getName() +
+			" (files patched in place, or an interrupted --compile-mod), which a patch can't describe. " +
+			"Please reset it first.");
+	}
+	
+	private static ByteBuffer readToc(BunyStruct buny) throws IOException {
+		ByteBuffer toc = ByteBuffer.allocate((int) buny.getTocSize()).order(ByteOrder.LITTLE_ENDIAN);
+		buny.getRaf().readFully(toc, buny.getTocOffset());
+		toc.clear();
+		return toc;
+	}
+
+	private static int findRange(List<long[]> ranges, long offset) {
+		int lo = 0;
+		int hi = ranges.size() - 1;
+		while (lo < hi) {
+			int mid = (lo + hi + 1) >>> 1;
+			if (ranges.get(mid)[0] <= offset) {
+				lo = mid;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		return lo;
+	}
+
+	private static int crc(ByteBuffer buffer) {
+		CRC32C crc = new CRC32C();
+		crc.update(buffer.array(), 0, buffer.capacity());
+		return (int) crc.getValue();
+	}
+}
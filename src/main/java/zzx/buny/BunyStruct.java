@@ -11,6 +11,7 @@ import java.util.Map;
 import zzx.utils.LERandomAccessFile;
 
 public class BunyStruct implements Closeable {
+    private File file;
     private LERandomAccessFile raf;
 
     // A magic string, its value should be "BunyArchTheForge"
@@ -33,19 +34,26 @@ public class BunyStruct implements Closeable {
     private Map<String, FileInside> nameToFile;
     
     public BunyStruct(String bunyFile) throws IOException {
-    	open(bunyFile);
+    	this(bunyFile, "rw");
+    }
+    
+    /**
+     * @param mode the access mode of the archive ("r" or "rw")
+     */
+    public BunyStruct(String bunyFile, String mode) throws IOException {
+    	open(bunyFile, mode);
         readHeader();
         files = new FileInside[(int) getFileCount()];
         nameToFile = new HashMap<>((int) getFileCount());
         // readFiles();
     }
 
-    private void open(String bunyFile) throws IOException {
-        File file = new File(bunyFile);
+    private void open(String bunyFile, String mode) throws IOException {
+        file = new File(bunyFile);
         if (!file.exists()) {
             throw new FileNotFoundException("The buny file does not exist: " + bunyFile);
         }
-        raf = new LERandomAccessFile(file, "rw");
+        raf = new LERandomAccessFile(file, mode);
     }
 
     private void readHeader() throws IOException {
@@ -132,6 +140,13 @@ public class BunyStruct implements Closeable {
     	return getTocSize() / 0x28L;
     }
     
+    /**
+     * @return the archive file on disk
+     */
+    public File getArchiveFile() {
+    	return file;
+    }
+    
     public long getLength() throws IOException {
     	return raf.length();
     }
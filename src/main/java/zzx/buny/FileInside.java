@@ -1,15 +1,21 @@
 package zzx.buny;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
 import java.nio.charset.StandardCharsets;
 
 import com.github.luben.zstd.ZstdInputStream;
 
 import zzx.utils.LERandomAccessFile;
 import zzx.utils.LERandomAccessFileSlice;
+import zzx.utils.RegionInputStream;
+import zzx.utils.ZipEntryFile;
 
 public class FileInside {
 	private final BunyStruct buny;
@@ -118,8 +124,37 @@ public class FileInside {
 	    }
 	}
 	
+	/**
+	 * Opens a stream over the (decompressed) content of this file.
+	 * The stream reads the archive with positional reads, so it neither depends on
+	 * nor disturbs the file pointer of the archive, and doesn't need to be closed before
+	 * other operations on the archive.
+	 */
+	public InputStream openStream() throws IOException {
+		LERandomAccessFile raf = buny.getRaf();
+		if (!isCompressed()) {
+			return new RegionInputStream(raf, offset, size);
+		}
+		
+		long actualOffset = offset + 0x18L + (blockNum * 8L);
+		long actualZsize = zsize - 0x18L - (blockNum * 8L);
+		InputStream in = new RegionInputStream(raf, actualOffset, actualZsize);
+		return isActualCompressed() ? new ZstdInputStream(new BufferedInputStream(in, 0x10000)) : in;
+	}
+	
 	public void redirectTo(File newFile) throws IOException {
-		try (LERandomAccessFile newRaf = new LERandomAccessFile(newFile, "r")) {
+		if (newFile instanceof ZipEntryFile && !((ZipEntryFile) newFile).isStored()) {
+			// Inflated straight to the end of the archive
+			redirectTo(out -> {
+				try (InputStream in = ZipEntryFile.openStream(newFile)) {
+					in.transferTo(out);
+				}
+			});
+			return;
+		}
+		
+		// (a stored zip entry is a slice of its .zip file)
+		try (LERandomAccessFile newRaf = ZipEntryFile.open(newFile)) {
 			if (isCompressed()) {
 				redirectCompressed(newRaf);
 			} else {
@@ -128,6 +163,63 @@ public class FileInside {
 	    }
 	}
 	
+	/**
+	 * Writes new content for this file.
+	 */
+	public interface ContentWriter {
+		void writeTo(OutputStream out) throws IOException;
+	}
+	
+	/**
+	 * Like {@link #redirectTo(File)}, but the new content is written by {@code content} straight
+	 * to the end of the archive (after the header of a compressed file, if this one is),
+	 * so it doesn't have to be in a file first.
+	 * 
+	 * @return the offset in the archive where the new content starts
+	 */
+	public long redirectTo(ContentWriter content) throws IOException {
+		LERandomAccessFile raf = buny.getRaf();
+		long newOffset = raf.length();
+		long headerSize = isCompressed() ? 0x18L + 8L : 0;	// a single block, see redirectCompressed
+		long contentOffset = newOffset + headerSize;
+		
+		raf.seek(contentOffset);
+		// Not closed: that would close the channel of the archive
+		OutputStream out = new BufferedOutputStream(Channels.newOutputStream(raf.getWritableChannel()), 0x10000);
+		try {
+			content.writeTo(out);
+			out.flush();
+		} catch (IOException | RuntimeException e) {
+			raf.setLength(newOffset);
+			throw e;
+		}
+		long newSize = raf.getFilePointer() - contentOffset;
+		
+		if (isCompressed()) {
+			if (newSize > 0x40000L) {
+				raf.setLength(newOffset);
+				throw tooLargeToReplace();
+			}
+			raf.seek(newOffset);
+			writeCompressedHeader(raf, newSize);
+			redirectTo(newOffset, newSize + headerSize, newSize);
+		} else {
+			redirectTo(newOffset, newSize, newSize);
+		}
+		return contentOffset;
+	}
+	
+	/**
+	 * @return the number of bytes {@link #redirectTo(File)} would append to the archive for new content
+	 *         of this size, or -1 if this file can't be replaced by something that large
+	 */
+	public long getRedirectSize(long newSize) {
+		if (!isCompressed()) {
+			return newSize;
+		}
+		return newSize > 0x40000L ? -1 : newSize + 0x18L + 8L;	// see redirectCompressed
+	}
+	
 	private void redirectRaw(LERandomAccessFile newFile) throws IOException {
 		LERandomAccessFile raf = buny.getRaf();
 	    long newSize = newFile.length() - newFile.getFilePointer();
@@ -154,24 +246,37 @@ public class FileInside {
 	    	 * or trying to add support for multiple blocks (somewhat cumbersome), 
 	    	 * may be able to lift this restriction.
 	    	 */
-	    	throw new IOException(
-	    			"Replacing certain file formats with sizes over 256KB is currently not supported. "
-	    			+ "Sorry for the inconvenience — if you need this feature, "
-	    			+ "please let me know and I’ll do my best to support it.");
+	    	throw tooLargeToReplace();
 	    }
 	    
 	    raf.seek(newOffset);
+	    writeCompressedHeader(raf, newSize);
+	    
+	    // Write the content of the new file, but without actually compressing it.
+	    newFile.transferTo(raf, newFile.getFilePointer(), newSize);
+	    
+	    redirectTo(newOffset, newZsize, newSize); 
+	}
+	
+	// The header of a compressed file made of a single block which isn't actually compressed
+	private void writeCompressedHeader(LERandomAccessFile raf, long newSize) throws IOException {
+		long maxBlockSize = 0x40000L;
+		long newNum = 1;
+		long newZsize = newSize + 0x18L + (newNum * 8L);
+		
 	    raf.writeLong(maxBlockSize);	// maximum bytes per block (256kb)
 	    raf.writeLong(newSize);			// size (only if it's no actually compressed)
 	    raf.writeLong(newNum);			// block number
 
 	    raf.writeInt(0);				// 0: no acutally compressed;  1: compressed
 	    raf.writeInt(calcUnknowValue((int) newZsize));	// unknow value
-	    
-	    // Write the content of the new file, but without actually compressing it.
-	    newFile.transferTo(raf, newFile.getFilePointer(), newSize);
-	    
-	    redirectTo(newOffset, newZsize, newSize); 
+	}
+	
+	private static IOException tooLargeToReplace() {
+		return new IOException(
+    			"Replacing certain file formats with sizes over 256KB is currently not supported. "
+    			+ "Sorry for the inconvenience — if you need this feature, "
+    			+ "please let me know and I’ll do my best to support it.");
 	}
 	
 	private int calcUnknowValue(int zsize) {
@@ -0,0 +1,244 @@
+package zzx.buny;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32C;
+
+/*
+ * A reference description of every file inside a .buny archive, used by --verify.
+ *
+ * It is a tab-separated text file:
+ *
+ *   BunyManifest	1
+ *   archive	<archiveLength>	<tocOffset>	<tocSize>	<tocCrc>
+ *   <index>	<offset>	<zsize>	<size>	<crc>	<headerSize>	<headerCrc>	<name>
+ *   ...
+ *
+ * crc is the CRC32C of the raw stored bytes [offset, offset + zsize).
+ * headerCrc is the CRC32C of the compressed file header (headerSize = 0x18 + blockNum * 8 bytes),
+ * headerSize is 0 and headerCrc is "-" for uncompressed files. All checksums are written as 8 hex digits.
+ */
+public class Manifest {
+
+	private static final String MAGIC = "BunyManifest";
+	private static final int VERSION = 1;
+
+	private final long archiveLength;
+	private final long tocOffset;
+	private final long tocSize;
+	private final int tocCrc;
+
+	private final long[] offsets;
+	private final long[] zsizes;
+	private final long[] sizes;
+	private final int[] crcs;
+	private final long[] headerSizes;	// 0 for uncompressed files
+	private final int[] headerCrcs;
+	private final String[] names;
+
+	private Manifest(long archiveLength, long tocOffset, long tocSize, int tocCrc, int count) {
+		this.archiveLength = archiveLength;
+		this.tocOffset = tocOffset;
+		this.tocSize = tocSize;
+		this.tocCrc = tocCrc;
+		this.offsets = new long[count];
+		this.zsizes = new long[count];
+		this.sizes = new long[count];
+		this.crcs = new int[count];
+		this.headerSizes = new long[count];
+		this.headerCrcs = new int[count];
+		this.names = new String[count];
+	}
+
+	/**
+	 * Creates a manifest of the archive in its current state.
+	 * All files of the archive must have been loaded.
+	 */
+	public static Manifest create(BunyStruct buny) throws IOException {
+		FileInside[] files = buny.getAllFiles();
+		Manifest manifest = new Manifest(buny.getLength(), buny.getTocOffset(), buny.getTocSize(),
+				ArchiveHasher.hashToc(buny), files.length);
+
+		int[] crcs = ArchiveHasher.hashStoredBytes(buny, files);
+		for (int i = 0; i < files.length; i++) {
+			FileInside file = files[i];
+			manifest.offsets[i] = file.getOffset();
+			manifest.zsizes[i] = file.getZsize();
+			manifest.sizes[i] = file.getSize();
+			manifest.crcs[i] = crcs[i];
+			manifest.headerSizes[i] = file.isCompressed() ? 0x18L + file.getBlockNum() * 8L : 0;
+			manifest.names[i] = file.getName();
+		}
+
+		int[] headerCrcs = manifest.hashHeaders(buny, allIndices(files.length));
+		System.arraycopy(headerCrcs, 0, manifest.headerCrcs, 0, headerCrcs.length);
+		return manifest;
+	}
+
+	/**
+	 * Hashes the compressed file headers of the given entries, at the offsets recorded in this manifest.
+	 * Uncompressed entries get a checksum of 0.
+	 */
+	public int[] hashHeaders(BunyStruct buny, int[] indices) throws IOException {
+		long[] ranges = new long[indices.length];
+		long[] lengths = new long[indices.length];
+		for (int i = 0; i < indices.length; i++) {
+			ranges[i] = offsets[indices[i]];
+			lengths[i] = headerSizes[indices[i]];
+		}
+		return ArchiveHasher.hashRanges(buny.getRaf(), ranges, lengths);
+	}
+
+	/**
+	 * Hashes the raw stored bytes of the given entries, at the offsets recorded in this manifest.
+	 */
+	public int[] hashStoredBytes(BunyStruct buny, int[] indices) throws IOException {
+		long[] ranges = new long[indices.length];
+		long[] lengths = new long[indices.length];
+		for (int i = 0; i < indices.length; i++) {
+			ranges[i] = offsets[indices[i]];
+			lengths[i] = zsizes[indices[i]];
+		}
+		return ArchiveHasher.hashRanges(buny.getRaf(), ranges, lengths);
+	}
+
+	/**
+	 * Hashes the TOC of the archive with the offset, zsize and size of every entry put back to
+	 * the values recorded in this manifest. It matches the recorded TOC checksum when entries
+	 * were only redirected, not when other TOC bytes (e.g. the name hashes) are damaged.
+	 */
+	public int hashTocAsRecorded(BunyStruct buny) throws IOException {
+		ByteBuffer toc = ByteBuffer.allocate((int) buny.getTocSize()).order(ByteOrder.LITTLE_ENDIAN);
+		buny.getRaf().readFully(toc, buny.getTocOffset());
+
+		int count = (int) Math.min(size(), buny.getTocSize() / 0x28L);
+		for (int i = 0; i < count; i++) {
+			int base = i * 0x28;
+			toc.putLong(base + 0x08, sizes[i]);
+			toc.putLong(base + 0x18, offsets[i]);
+			toc.putLong(base + 0x20, zsizes[i]);
+		}
+
+		CRC32C crc = new CRC32C();
+		crc.update(toc.array(), 0, toc.capacity());
+		return (int) crc.getValue();
+	}
+
+	public void writeTo(File file) throws IOException {
+		try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+			writer.write(MAGIC + "\t" + VERSION + "\n");
+			writer.write("archive\t" + archiveLength + "\t" + tocOffset + "\t" + tocSize + "\t" + hex(tocCrc) + "\n");
+			for (int i = 0; i < size(); i++) {
+				writer.write(i + "\t" + offsets[i] + "\t" + zsizes[i] + "\t" + sizes[i] + "\t" + hex(crcs[i]) + "\t" +
+						headerSizes[i] + "\t" + (isCompressed(i) ? hex(headerCrcs[i]) : "-") + "\t" + names[i] + "\n");
+			}
+		}
+	}
+
+	public static Manifest read(File file) throws IOException {
+		try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+			String[] magic = reader.readLine().split("\t");
+			if (!MAGIC.equals(magic[0]) || Integer.parseInt(magic[1]) != VERSION) {
+				throw new IOException("Not a supported manifest file: " + file);
+			}
+
+			String[] header = reader.readLine().split("\t");
+			long tocSize = Long.parseLong(header[3]);
+			Manifest manifest = new Manifest(Long.parseLong(header[1]), Long.parseLong(header[2]), tocSize,
+					parseHex(header[4]), (int) (tocSize / 0x28L));
+
+			for (int i = 0; i < manifest.size(); i++) {
+				String line = reader.readLine();
+				if (line == null) {
+					throw new IOException("Manifest is truncated at entry " + i + ": " + file);
+				}
+				String[] parts = line.split("\t", 8);
+				manifest.offsets[i] = Long.parseLong(parts[1]);
+				manifest.zsizes[i] = Long.parseLong(parts[2]);
+				manifest.sizes[i] = Long.parseLong(parts[3]);
+				manifest.crcs[i] = parseHex(parts[4]);
+				manifest.headerSizes[i] = Long.parseLong(parts[5]);
+				if (!"-".equals(parts[6])) {
+					manifest.headerCrcs[i] = parseHex(parts[6]);
+				}
+				manifest.names[i] = parts[7];
+			}
+			return manifest;
+		}
+	}
+
+	/**
+	 * @return true if the TOC entry of the file points to the same bytes as recorded in this manifest
+	 */
+	public boolean sameTocEntry(int index, FileInside file) {
+		return file.getOffset() == offsets[index] &&
+			   file.getZsize()  == zsizes[index]  &&
+			   file.getSize()   == sizes[index];
+	}
+
+	public boolean isCompressed(int index) {
+		return sizes[index] != zsizes[index];
+	}
+
+	public int size() {
+		return names.length;
+	}
+
+	public long getArchiveLength() {
+		return archiveLength;
+	}
+
+	public long getTocOffset() {
+		return tocOffset;
+	}
+
+	public long getTocSize() {
+		return tocSize;
+	}
+
+	public int getTocCrc() {
+		return tocCrc;
+	}
+
+	public long getOffset(int index) {
+		return offsets[index];
+	}
+
+	public long getZsize(int index) {
+		return zsizes[index];
+	}
+
+	public int getCrc(int index) {
+		return crcs[index];
+	}
+
+	public int getHeaderCrc(int index) {
+		return headerCrcs[index];
+	}
+
+	public String getName(int index) {
+		return names[index];
+	}
+
+	private static int[] allIndices(int count) {
+		int[] indices = new int[count];
+		for (int i = 0; i < count; i++) {
+			indices[i] = i;
+		}
+		return indices;
+	}
+
+	public static String hex(int crc) {
+		return String.format("%08x", crc);
+	}
+
+	private static int parseHex(String s) {
+		return Integer.parseUnsignedInt(s, 16);
+	}
+}
@@ -1,15 +1,35 @@
 package zzx.buny;
 
-import java.io.BufferedInputStream;
-import java.io.Closeable;
-import java.io.DataInputStream;
-import java.io.EOFException;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 
-public class TocBackup implements Closeable {
+import zzx.utils.LERandomAccessFile;
+
+/*
+ * A snapshot of the (offset, zsize, size) triples of a pristine .buny archive,
+ * used to undo the redirections made by --modify.
+ *
+ * File layout (all numbers are unsigned LEB128 varints unless stated otherwise):
+ *
+ *   "BTOC"              4-byte magic
+ *   version             1 byte, currently 1
+ *   tocOffset           the TOC offset of the snapshotted archive
+ *   tocSize             the TOC size of the snapshotted archive
+ *   archiveLength       the length of the snapshotted archive
+ *   count               number of entries
+ *   gap[count]          zigzag(offset[i] - (offset[i-1] + zsize[i-1])), offset[-1] + zsize[-1] = 0
+ *   zsize[count]
+ *   extra[count]        zigzag(size[i] - zsize[i]), which is 0 for every uncompressed entry
+ *
+ * Files in an archive are stored back to back in TOC order, so almost every gap
+ * and every uncompressed extra fits in a single byte.
+ */
+public class TocBackup {
 
     public static class Item {
         public final long offset;
@@ -22,29 +42,187 @@ public class TocBackup implements Closeable {
         }
     }
 
-    private final DataInputStream in;
+    private static final byte[] MAGIC = "BTOC".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+
+    private final long tocOffset;
+    private final long tocSize;
+    private final long archiveLength;
+
+    private final long[] offsets;
+    private final long[] zsizes;
+    private final long[] sizes;
+
+    public TocBackup(InputStream in) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(in.readAllBytes());
+
+        for (byte b : MAGIC) {
+            if (!buf.hasRemaining() || buf.get() != b) {
+                throw new IOException("Not a TOC backup file (bad magic)");
+            }
+        }
+        int version = buf.get();
+        if (version != VERSION) {
+            throw new IOException("Unsupported TOC backup version: " + version);
+        }
+
+        tocOffset = readVarLong(buf);
+        tocSize = readVarLong(buf);
+        archiveLength = readVarLong(buf);
+        int count = (int) readVarLong(buf);
 
-    private List<Item> items = new ArrayList<>();
+        offsets = new long[count];
+        zsizes = new long[count];
+        sizes = new long[count];
 
-    public TocBackup(InputStream in) {
-        this.in = new DataInputStream(new BufferedInputStream(in));
+        for (int i = 0; i < count; i++) {
+            offsets[i] = decodeZigZag(readVarLong(buf));
+        }
+        for (int i = 0; i < count; i++) {
+            zsizes[i] = readVarLong(buf);
+        }
+        for (int i = 0; i < count; i++) {
+            sizes[i] = zsizes[i] + decodeZigZag(readVarLong(buf));
+        }
+
+        // Resolve the gaps into absolute offsets
+        long end = 0;
+        for (int i = 0; i < count; i++) {
+            offsets[i] += end;
+            end = offsets[i] + zsizes[i];
+        }
     }
-    
+
     public Item get(int index) {
-    	try {
-    	    while (items.size() <= index) {
-    	        items.add(new Item(in.readLong(), in.readLong(), in.readLong()));
-    	    }
-    	    return items.get(index);
-    	} catch (EOFException e) {
-    	    throw new IndexOutOfBoundsException("No item at index " + index);
-    	} catch (IOException e) {
-    	    throw new RuntimeException("Failed to read TOC item at index " + index, e);
-    	}
-    }
-
-    @Override
-    public void close() throws IOException {
-        in.close();
+        checkIndex(index);
+        return new Item(offsets[index], zsizes[index], sizes[index]);
+    }
+
+    public long getOffset(int index) {
+        checkIndex(index);
+        return offsets[index];
+    }
+
+    public long getZsize(int index) {
+        checkIndex(index);
+        return zsizes[index];
+    }
+
+    public long getSize(int index) {
+        checkIndex(index);
+        return sizes[index];
+    }
+
+    public int size() {
+        return offsets.length;
+    }
+
+    public long getTocOffset() {
+        return tocOffset;
+    }
+
+    public long getTocSize() {
+        return tocSize;
+    }
+
+    public long getArchiveLength() {
+        return archiveLength;
+    }
+
+    /**
+     * Checks whether the given archive has the same TOC layout as the snapshotted one
+     * and has not been truncated below its original length.
+     */
+    public boolean matches(BunyStruct buny) throws IOException {
+        return  buny.getTocOffset() == tocOffset    &&
+                buny.getTocSize()   == tocSize      &&
+                buny.getLength()    >= archiveLength;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= offsets.length) {
+            throw new IndexOutOfBoundsException("No item at index " + index);
+        }
+    }
+
+    /**
+     * Writes a snapshot of the current TOC of the given archive.
+     * The archive is expected to be pristine (never touched by --modify).
+     * The whole TOC is read at once, so the files of the archive don't need to be loaded.
+     *
+     * @return the number of entries written
+     */
+    public static int snapshot(BunyStruct buny, OutputStream out) throws IOException {
+        int count = (int) buny.getFileCount();
+        byte[] toc = new byte[(int) (count * 0x28L)];
+
+        LERandomAccessFile raf = buny.getRaf();
+        raf.seek(buny.getTocOffset());
+        raf.readFully(toc);
+
+        ByteBuffer tocBuf = ByteBuffer.wrap(toc).order(ByteOrder.LITTLE_ENDIAN);
+        long[] offsets = new long[count];
+        long[] zsizes = new long[count];
+        long[] sizes = new long[count];
+        for (int i = 0; i < count; i++) {
+            int base = i * 0x28;
+            sizes[i] = tocBuf.getLong(base + 0x08);
+            offsets[i] = tocBuf.getLong(base + 0x18);
+            zsizes[i] = tocBuf.getLong(base + 0x20);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(count * 4 + 64);
+        bytes.write(MAGIC);
+        bytes.write(VERSION);
+        writeVarLong(bytes, buny.getTocOffset());
+        writeVarLong(bytes, buny.getTocSize());
+        writeVarLong(bytes, buny.getLength());
+        writeVarLong(bytes, count);
+
+        long end = 0;
+        for (int i = 0; i < count; i++) {
+            writeVarLong(bytes, encodeZigZag(offsets[i] - end));
+            end = offsets[i] + zsizes[i];
+        }
+        for (int i = 0; i < count; i++) {
+            writeVarLong(bytes, zsizes[i]);
+        }
+        for (int i = 0; i < count; i++) {
+            writeVarLong(bytes, encodeZigZag(sizes[i] - zsizes[i]));
+        }
+
+        bytes.writeTo(out);
+        return count;
+    }
+
+    private static long readVarLong(ByteBuffer buf) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (!buf.hasRemaining()) {
+                throw new IOException("Truncated TOC backup file");
+            }
+            byte b = buf.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in TOC backup file");
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long encodeZigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long decodeZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
     }
 }
@@ -0,0 +1,139 @@
+package zzx.buny.fs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+import zzx.buny.FileInside;
+import zzx.utils.LERandomAccessFile;
+
+/**
+ * A read-only channel over the content of a file inside a .buny archive.
+ * <p>
+ * Uncompressed files are read with positional reads straight from the archive.
+ * Compressed files are decompressed on demand while reading forward; seeking backwards
+ * restarts the decompression from the beginning of the file.
+ */
+class BunyByteChannel implements SeekableByteChannel {
+
+	private final FileInside file;
+	private final LERandomAccessFile slice;	// only used for uncompressed files
+	private final long size;
+	private long position = 0;
+	private boolean open = true;
+
+	// only used for compressed files
+	private InputStream stream;
+	private long streamPosition;
+	private byte[] buffer;
+
+	BunyByteChannel(FileInside file) throws IOException {
+		this.file = file;
+		this.slice = file.isCompressed() ? null : file.getSlice();
+		this.size = file.getSize();
+	}
+
+	@Override
+	public int read(ByteBuffer dst) throws IOException {
+		ensureOpen();
+		if (position >= size) {
+			return -1;
+		}
+		int n = (int) Math.min(dst.remaining(), size - position);
+		if (n == 0) {
+			return 0;
+		}
+
+		if (!file.isCompressed()) {
+			ByteBuffer window = dst.duplicate();
+			window.limit(window.position() + n);
+			slice.readFully(window, position);
+			dst.position(dst.position() + n);
+		} else {
+			n = readCompressed(dst, n);
+		}
+
+		position += n;
+		return n;
+	}
+
+	private int readCompressed(ByteBuffer dst, int n) throws IOException {
+		if (stream == null || streamPosition > position) {
+			if (stream != null) {
+				stream.close();
+			}
+			stream = file.openStream();
+			streamPosition = 0;
+		}
+		if (streamPosition < position) {
+			stream.skipNBytes(position - streamPosition);
+			streamPosition = position;
+		}
+
+		if (buffer == null || buffer.length < Math.min(n, 0x40000)) {
+			buffer = new byte[Math.min(Math.max(n, 0x2000), 0x40000)];
+		}
+		int read = stream.read(buffer, 0, Math.min(n, buffer.length));
+		if (read < 0) {
+			throw new IOException("Unexpected end of compressed data: " + file.getName());
+		}
+		dst.put(buffer, 0, read);
+		streamPosition += read;
+		return read;
+	}
+
+	@Override
+	public int write(ByteBuffer src) {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public long position() throws IOException {
+		ensureOpen();
+		return position;
+	}
+
+	@Override
+	public SeekableByteChannel position(long newPosition) throws IOException {
+		ensureOpen();
+		if (newPosition < 0) {
+			throw new IllegalArgumentException("Negative position: " + newPosition);
+		}
+		position = newPosition;
+		return this;
+	}
+
+	@Override
+	public long size() throws IOException {
+		ensureOpen();
+		return size;
+	}
+
+	@Override
+	public SeekableByteChannel truncate(long size) {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+	@Override
+	public void close() throws IOException {
+		open = false;
+		if (stream != null) {
+			stream.close();
+			stream = null;
+		}
+	}
+
+	private void ensureOpen() throws IOException {
+		if (!open) {
+			throw new ClosedChannelException();
+		}
+	}
+}
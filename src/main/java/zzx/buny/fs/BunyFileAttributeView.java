@@ -0,0 +1,38 @@
+package zzx.buny.fs;
+
+import java.io.IOException;
+import java.nio.file.ReadOnlyFileSystemException;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.FileTime;
+
+/**
+ * The "buny" attribute view, which extends the basic view with the TOC entry of a file.
+ * It also serves as the basic view of the file system.
+ */
+public class BunyFileAttributeView implements BasicFileAttributeView {
+
+	public static final String NAME = "buny";
+
+	private final BunyPath path;
+	private final boolean isBunyView;
+
+	BunyFileAttributeView(BunyPath path, boolean isBunyView) {
+		this.path = path;
+		this.isBunyView = isBunyView;
+	}
+
+	@Override
+	public String name() {
+		return isBunyView ? NAME : "basic";
+	}
+
+	@Override
+	public BunyFileAttributes readAttributes() throws IOException {
+		return path.getFileSystem().provider().readAttributes(path);
+	}
+
+	@Override
+	public void setTimes(FileTime lastModifiedTime, FileTime lastAccessTime, FileTime createTime) {
+		throw new ReadOnlyFileSystemException();
+	}
+}
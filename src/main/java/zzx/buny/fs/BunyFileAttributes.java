@@ -0,0 +1,131 @@
+package zzx.buny.fs;
+
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import zzx.buny.FileInside;
+
+/**
+ * Attributes of a file or directory inside a .buny archive.
+ * Besides the basic attributes, files expose their TOC entry (zsize, offset, index).
+ * All timestamps are the last modified time of the archive itself.
+ */
+public class BunyFileAttributes implements BasicFileAttributes {
+
+	private final FileInside file;	// null for directories
+	private final FileTime time;
+
+	BunyFileAttributes(FileInside file, FileTime time) {
+		this.file = file;
+		this.time = time;
+	}
+
+	@Override
+	public FileTime lastModifiedTime() {
+		return time;
+	}
+
+	@Override
+	public FileTime lastAccessTime() {
+		return time;
+	}
+
+	@Override
+	public FileTime creationTime() {
+		return time;
+	}
+
+	@Override
+	public boolean isRegularFile() {
+		return file != null;
+	}
+
+	@Override
+	public boolean isDirectory() {
+		return file == null;
+	}
+
+	@Override
+	public boolean isSymbolicLink() {
+		return false;
+	}
+
+	@Override
+	public boolean isOther() {
+		return false;
+	}
+
+	/**
+	 * @return the uncompressed size of the file (0 for directories)
+	 */
+	@Override
+	public long size() {
+		return file == null ? 0 : file.getSize();
+	}
+
+	@Override
+	public Object fileKey() {
+		return file == null ? null : file.getIndex();
+	}
+
+	/**
+	 * @return the number of bytes the file occupies in the archive (0 for directories)
+	 */
+	public long zsize() {
+		return file == null ? 0 : file.getZsize();
+	}
+
+	/**
+	 * @return the offset of the file in the archive (-1 for directories)
+	 */
+	public long offset() {
+		return file == null ? -1 : file.getOffset();
+	}
+
+	/**
+	 * @return the index of the file in the TOC (-1 for directories)
+	 */
+	public int index() {
+		return file == null ? -1 : file.getIndex();
+	}
+
+	public boolean isCompressed() {
+		return file != null && file.isCompressed();
+	}
+
+	Map<String, Object> toMap(String view, String attributes) {
+		Map<String, Object> all = new LinkedHashMap<>();
+		all.put("lastModifiedTime", lastModifiedTime());
+		all.put("lastAccessTime", lastAccessTime());
+		all.put("creationTime", creationTime());
+		all.put("size", size());
+		all.put("isRegularFile", isRegularFile());
+		all.put("isDirectory", isDirectory());
+		all.put("isSymbolicLink", isSymbolicLink());
+		all.put("isOther", isOther());
+		all.put("fileKey", fileKey());
+		if (BunyFileAttributeView.NAME.equals(view)) {
+			all.put("zsize", zsize());
+			all.put("offset", offset());
+			all.put("index", index());
+			all.put("compressed", isCompressed());
+		}
+
+		if ("*".equals(attributes)) {
+			return all;
+		}
+		Map<String, Object> result = new LinkedHashMap<>();
+		for (String name : attributes.split(",")) {
+			if ("*".equals(name)) {
+				result.putAll(all);
+			} else if (all.containsKey(name)) {
+				result.put(name, all.get(name));
+			} else {
+				throw new IllegalArgumentException("'" + name + "' not recognized");
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,69 @@
+package zzx.buny.fs;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.FileAttributeView;
+import java.nio.file.attribute.FileStoreAttributeView;
+
+/**
+ * The single (read-only) store of a {@link BunyFileSystem}: the archive file itself.
+ */
+public class BunyFileStore extends FileStore {
+
+	private final BunyFileSystem fs;
+
+	BunyFileStore(BunyFileSystem fs) {
+		this.fs = fs;
+	}
+
+	@Override
+	public String name() {
+		return fs.getArchivePath().getFileName().toString();
+	}
+
+	@Override
+	public String type() {
+		return BunyFileSystemProvider.SCHEME;
+	}
+
+	@Override
+	public boolean isReadOnly() {
+		return true;
+	}
+
+	@Override
+	public long getTotalSpace() throws IOException {
+		return fs.getBuny().getLength();
+	}
+
+	@Override
+	public long getUsableSpace() {
+		return 0;
+	}
+
+	@Override
+	public long getUnallocatedSpace() {
+		return 0;
+	}
+
+	@Override
+	public boolean supportsFileAttributeView(Class<? extends FileAttributeView> type) {
+		return type == BasicFileAttributeView.class || type == BunyFileAttributeView.class;
+	}
+
+	@Override
+	public boolean supportsFileAttributeView(String name) {
+		return "basic".equals(name) || BunyFileAttributeView.NAME.equals(name);
+	}
+
+	@Override
+	public <V extends FileStoreAttributeView> V getFileStoreAttributeView(Class<V> type) {
+		return null;
+	}
+
+	@Override
+	public Object getAttribute(String attribute) throws IOException {
+		throw new UnsupportedOperationException("'" + attribute + "' not recognized");
+	}
+}
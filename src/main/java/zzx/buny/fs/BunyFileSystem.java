@@ -0,0 +1,266 @@
+package zzx.buny.fs;
+
+import java.io.IOException;
+import java.nio.file.ClosedFileSystemException;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.UserPrincipalLookupService;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+import zzx.buny.BunyStruct;
+import zzx.buny.FileInside;
+
+/**
+ * A read-only view of a .buny archive as a {@link FileSystem}.
+ * <p>
+ * The directory structure is built once from the name table when the file system is opened.
+ * Files are read straight from the archive (see {@link BunyFileSystemProvider#newByteChannel}),
+ * so nothing is extracted to disk.
+ */
+public class BunyFileSystem extends FileSystem {
+
+	private final BunyFileSystemProvider provider;
+	private final Path archivePath;
+	private final BunyStruct buny;
+	private final FileTime archiveTime;
+
+	// entry name (e.g. "data/sound/a1.fsb") -> file
+	private final Map<String, FileInside> files = new HashMap<>();
+	// directory name ("" for the root) -> sorted names of its children
+	private final Map<String, Set<String>> dirs = new HashMap<>();
+
+	private volatile boolean open = true;
+
+	BunyFileSystem(BunyFileSystemProvider provider, Path archivePath) throws IOException {
+		this.provider = provider;
+		this.archivePath = archivePath;
+		this.archiveTime = Files.getLastModifiedTime(archivePath);
+		this.buny = new BunyStruct(archivePath.toString(), "r");
+
+		try {
+			buny.readFiles();
+		} catch (IOException e) {
+			buny.close();
+			throw e;
+		}
+
+		dirs.put("", new TreeSet<>());
+		for (FileInside file : buny.getAllFiles()) {
+			String name = file.getName().replace('\\', '/');
+			files.put(name, file);
+			addToParent(name);
+		}
+	}
+
+	private void addToParent(String name) {
+		int cut = name.lastIndexOf('/');
+		String parent = cut < 0 ? "" : name.substring(0, cut);
+		Set<String> children = dirs.get(parent);
+		if (children == null) {
+			children = new TreeSet<>();
+			dirs.put(parent, children);
+			addToParent(parent);
+		}
+		children.add(name.substring(cut + 1));
+	}
+
+	Path getArchivePath() {
+		return archivePath;
+	}
+
+	BunyStruct getBuny() {
+		return buny;
+	}
+
+	FileTime getArchiveTime() {
+		return archiveTime;
+	}
+
+	/**
+	 * @return the file with this entry name, or null if there is none
+	 */
+	FileInside getFile(String entryName) {
+		return files.get(entryName);
+	}
+
+	boolean isDirectory(String entryName) {
+		return dirs.containsKey(entryName);
+	}
+
+	/**
+	 * @return the sorted names of the children of this directory, or null if it isn't one
+	 */
+	Set<String> getChildren(String entryName) {
+		Set<String> children = dirs.get(entryName);
+		return children == null ? null : Collections.unmodifiableSet(children);
+	}
+
+	void ensureOpen() {
+		if (!open) {
+			throw new ClosedFileSystemException();
+		}
+	}
+
+	@Override
+	public BunyFileSystemProvider provider() {
+		return provider;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (!open) {
+			return;
+		}
+		open = false;
+		provider.removeFileSystem(archivePath);
+		buny.close();
+	}
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+	@Override
+	public boolean isReadOnly() {
+		return true;
+	}
+
+	@Override
+	public String getSeparator() {
+		return "/";
+	}
+
+	@Override
+	public Iterable<Path> getRootDirectories() {
+		return Collections.<Path>singletonList(new BunyPath(this, "/"));
+	}
+
+	@Override
+	public Iterable<FileStore> getFileStores() {
+		return Collections.<FileStore>singletonList(new BunyFileStore(this));
+	}
+
+	@Override
+	public Set<String> supportedFileAttributeViews() {
+		return new HashSet<>(Arrays.asList("basic", BunyFileAttributeView.NAME));
+	}
+
+	@Override
+	public Path getPath(String first, String... more) {
+		if (more.length == 0) {
+			return new BunyPath(this, first);
+		}
+		StringBuilder sb = new StringBuilder(first);
+		for (String name : more) {
+			if (!name.isEmpty()) {
+				if (sb.length() > 0) {
+					sb.append('/');
+				}
+				sb.append(name);
+			}
+		}
+		return new BunyPath(this, sb.toString());
+	}
+
+	@Override
+	public PathMatcher getPathMatcher(String syntaxAndPattern) {
+		int colon = syntaxAndPattern.indexOf(':');
+		if (colon <= 0) {
+			throw new IllegalArgumentException("Expected syntax:pattern, got: " + syntaxAndPattern);
+		}
+		String syntax = syntaxAndPattern.substring(0, colon);
+		String pattern = syntaxAndPattern.substring(colon + 1);
+
+		String regex;
+		if (syntax.equalsIgnoreCase("regex")) {
+			regex = pattern;
+		} else if (syntax.equalsIgnoreCase("glob")) {
+			regex = globToRegex(pattern);
+		} else {
+			throw new UnsupportedOperationException("Syntax '" + syntax + "' not recognized");
+		}
+
+		Pattern compiled = Pattern.compile(regex);
+		return path -> compiled.matcher(path.toString()).matches();
+	}
+
+	/*
+	 * Supports the common subset of glob: '*' (within a name), '**' (across names),
+	 * '?', '[...]' character classes and '{a,b}' alternatives.
+	 */
+	private static String globToRegex(String glob) {
+		StringBuilder regex = new StringBuilder("^");
+		boolean inGroup = false;
+		for (int i = 0; i < glob.length(); i++) {
+			char c = glob.charAt(i);
+			switch (c) {
+			case '*':
+				if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+					regex.append(".*");
+					i++;
+				} else {
+					regex.append("[^/]*");
+				}
+				break;
+			case '?':
+				regex.append("[^/]");
+				break;
+			case '[':
+				regex.append('[');
+				if (i + 1 < glob.length() && glob.charAt(i + 1) == '!') {
+					regex.append('^');
+					i++;
+				}
+				break;
+			case ']':
+				regex.append(']');
+				break;
+			case '{':
+				regex.append("(?:");
+				inGroup = true;
+				break;
+			case '}':
+				regex.append(')');
+				inGroup = false;
+				break;
+			case ',':
+				regex.append(inGroup ? "|" : ",");
+				break;
+			case '\\':
+				if (i + 1 < glob.length()) {
+					regex.append(Pattern.quote(String.valueOf(glob.charAt(++i))));
+				}
+				break;
+			default:
+				if (".^$+()|".indexOf(c) >= 0) {
+					regex.append('\\');
+				}
+				regex.append(c);
+			}
+		}
+		return regex.append('$').toString();
+	}
+
+	@Override
+	public UserPrincipalLookupService getUserPrincipalLookupService() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public WatchService newWatchService() {
+		throw new UnsupportedOperationException();
+	}
+}
@@ -0,0 +1,324 @@
+package zzx.buny.fs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.AccessMode;
+import java.nio.file.CopyOption;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.ReadOnlyFileSystemException;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.FileAttributeView;
+import java.nio.file.spi.FileSystemProvider;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import zzx.buny.FileInside;
+
+/**
+ * A read-only {@link FileSystemProvider} for .buny archives, registered for the "buny" scheme.
+ * <p>
+ * URIs take the same form as the JDK's "jar" scheme, with a '!' between the archive and the entry:
+ * <pre>
+ *   buny:file:///C:/Game/data.buny!/data/sound/a1.fsb
+ * </pre>
+ * Typical use:
+ * <pre>
+ *   try (FileSystem fs = FileSystems.newFileSystem(Paths.get("data.buny"))) {
+ *       Files.copy(fs.getPath("/data/sound/pc_a1.flo"), Paths.get("pc_a1.flo"));
+ *   }
+ * </pre>
+ */
+public class BunyFileSystemProvider extends FileSystemProvider {
+
+	public static final String SCHEME = "buny";
+
+	// real path of the archive -> its open file system
+	private final Map<Path, BunyFileSystem> filesystems = new HashMap<>();
+
+	@Override
+	public String getScheme() {
+		return SCHEME;
+	}
+
+	@Override
+	public FileSystem newFileSystem(URI uri, Map<String, ?> env) throws IOException {
+		return newFileSystem(archivePathOf(uri), env);
+	}
+
+	@Override
+	public FileSystem newFileSystem(Path path, Map<String, ?> env) throws IOException {
+		if (!path.getFileName().toString().toLowerCase().endsWith(".buny")) {
+			throw new UnsupportedOperationException("Not a .buny archive: " + path);
+		}
+		Path realPath = path.toRealPath();
+		synchronized (filesystems) {
+			if (filesystems.containsKey(realPath)) {
+				throw new FileSystemAlreadyExistsException(realPath.toString());
+			}
+			BunyFileSystem fs = new BunyFileSystem(this, realPath);
+			filesystems.put(realPath, fs);
+			return fs;
+		}
+	}
+
+	@Override
+	public FileSystem getFileSystem(URI uri) {
+		Path archivePath = archivePathOf(uri);
+		synchronized (filesystems) {
+			BunyFileSystem fs = null;
+			try {
+				fs = filesystems.get(archivePath.toRealPath());
+			} catch (IOException e) {
+				// the archive doesn't exist, so neither does its file system
+			}
+			if (fs == null) {
+				throw new FileSystemNotFoundException(uri.toString());
+			}
+			return fs;
+		}
+	}
+
+	void removeFileSystem(Path archivePath) {
+		synchronized (filesystems) {
+			filesystems.remove(archivePath);
+		}
+	}
+
+	@Override
+	public Path getPath(URI uri) {
+		String spec = uri.getSchemeSpecificPart();
+		int sep = spec.indexOf("!/");
+		if (sep < 0) {
+			throw new IllegalArgumentException("URI does not contain a path inside the archive: " + uri);
+		}
+		return getFileSystem(uri).getPath(spec.substring(sep + 1));
+	}
+
+	private static Path archivePathOf(URI uri) {
+		if (!SCHEME.equalsIgnoreCase(uri.getScheme())) {
+			throw new IllegalArgumentException("URI scheme is not '" + SCHEME + "': " + uri);
+		}
+		String spec = uri.getSchemeSpecificPart();
+		int sep = spec.indexOf("!/");
+		if (sep >= 0) {
+			spec = spec.substring(0, sep);
+		}
+		try {
+			return Paths.get(new URI(spec));
+		} catch (URISyntaxException e) {
+			throw new IllegalArgumentException("Invalid archive URI: " + spec, e);
+		}
+	}
+
+	private static BunyPath toBunyPath(Path path) {
+		if (!(path instanceof BunyPath)) {
+			throw new ProviderMismatchException();
+		}
+		BunyPath bunyPath = (BunyPath) path;
+		bunyPath.getFileSystem().ensureOpen();
+		return bunyPath;
+	}
+
+	private static FileInside getFile(BunyPath path) throws IOException {
+		String name = path.toEntryName();
+		FileInside file = path.getFileSystem().getFile(name);
+		if (file == null) {
+			if (path.getFileSystem().isDirectory(name)) {
+				throw new FileSystemException(path.toString(), null, "Is a directory");
+			}
+			throw new NoSuchFileException(path.toString());
+		}
+		return file;
+	}
+
+	@Override
+	public SeekableByteChannel newByteChannel(Path path, Set<? extends OpenOption> options,
+			FileAttribute<?>... attrs) throws IOException {
+		for (OpenOption option : options) {
+			if (option == StandardOpenOption.WRITE || option == StandardOpenOption.APPEND ||
+				option == StandardOpenOption.CREATE || option == StandardOpenOption.CREATE_NEW ||
+				option == StandardOpenOption.DELETE_ON_CLOSE || option == StandardOpenOption.TRUNCATE_EXISTING) {
+				throw new ReadOnlyFileSystemException();
+			}
+		}
+		return new BunyByteChannel(getFile(toBunyPath(path)));
+	}
+
+	@Override
+	public InputStream newInputStream(Path path, OpenOption... options) throws IOException {
+		for (OpenOption option : options) {
+			if (option != StandardOpenOption.READ) {
+				throw new UnsupportedOperationException("'" + option + "' not allowed");
+			}
+		}
+		// Plain sequential reads don't need a seekable channel
+		return getFile(toBunyPath(path)).openStream();
+	}
+
+	@Override
+	public DirectoryStream<Path> newDirectoryStream(Path dir, DirectoryStream.Filter<? super Path> filter)
+			throws IOException {
+		BunyPath bunyDir = toBunyPath(dir);
+		Set<String> children = bunyDir.getFileSystem().getChildren(bunyDir.toEntryName());
+		if (children == null) {
+			if (bunyDir.getFileSystem().getFile(bunyDir.toEntryName()) != null) {
+				throw new NotDirectoryException(dir.toString());
+			}
+			throw new NoSuchFileException(dir.toString());
+		}
+
+		List<Path> entries = new ArrayList<>(children.size());
+		for (String child : children) {
+			Path entry = dir.resolve(child);
+			if (filter == null || filter.accept(entry)) {
+				entries.add(entry);
+			}
+		}
+
+		return new DirectoryStream<Path>() {
+			private boolean iterated = false;
+
+			@Override
+			public Iterator<Path> iterator() {
+				if (iterated) {
+					throw new IllegalStateException("Iterator already obtained");
+				}
+				iterated = true;
+				return entries.iterator();
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+	}
+
+	@Override
+	public void createDirectory(Path dir, FileAttribute<?>... attrs) {
+		throw new ReadOnlyFileSystemException();
+	}
+
+	@Override
+	public void delete(Path path) {
+		throw new ReadOnlyFileSystemException();
+	}
+
+	@Override
+	public void copy(Path source, Path target, CopyOption... options) {
+		// Only called when both paths are inside archives; copying out goes through newInputStream
+		throw new ReadOnlyFileSystemException();
+	}
+
+	@Override
+	public void move(Path source, Path target, CopyOption... options) {
+		throw new ReadOnlyFileSystemException();
+	}
+
+	@Override
+	public boolean isSameFile(Path path, Path path2) throws IOException {
+		if (path.equals(path2)) {
+			return true;
+		}
+		if (!(path2 instanceof BunyPath) || path.getFileSystem() != path2.getFileSystem()) {
+			return false;
+		}
+		return toBunyPath(path).toEntryName().equals(toBunyPath(path2).toEntryName());
+	}
+
+	@Override
+	public boolean isHidden(Path path) {
+		return false;
+	}
+
+	@Override
+	public FileStore getFileStore(Path path) {
+		return new BunyFileStore(toBunyPath(path).getFileSystem());
+	}
+
+	@Override
+	public void checkAccess(Path path, AccessMode... modes) throws IOException {
+		BunyPath bunyPath = toBunyPath(path);
+		String name = bunyPath.toEntryName();
+		BunyFileSystem fs = bunyPath.getFileSystem();
+		if (fs.getFile(name) == null && !fs.isDirectory(name)) {
+			throw new NoSuchFileException(path.toString());
+		}
+		for (AccessMode mode : modes) {
+			if (mode == AccessMode.WRITE) {
+				throw new AccessDeniedException(path.toString(), null, "Read-only file system");
+			}
+		}
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <V extends FileAttributeView> V getFileAttributeView(Path path, Class<V> type, LinkOption... options) {
+		if (type == BasicFileAttributeView.class || type == BunyFileAttributeView.class) {
+			return (V) new BunyFileAttributeView(toBunyPath(path), type == BunyFileAttributeView.class);
+		}
+		return null;
+	}
+
+	BunyFileAttributes readAttributes(BunyPath path) throws IOException {
+		String name = path.toEntryName();
+		BunyFileSystem fs = path.getFileSystem();
+		FileInside file = fs.getFile(name);
+		if (file == null && !fs.isDirectory(name)) {
+			throw new NoSuchFileException(path.toString());
+		}
+		return new BunyFileAttributes(file, fs.getArchiveTime());
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <A extends BasicFileAttributes> A readAttributes(Path path, Class<A> type, LinkOption... options)
+			throws IOException {
+		if (type == BasicFileAttributes.class || type == BunyFileAttributes.class) {
+			return (A) readAttributes(toBunyPath(path));
+		}
+		throw new UnsupportedOperationException("Attributes of type " + type.getName() + " not supported");
+	}
+
+	@Override
+	public Map<String, Object> readAttributes(Path path, String attributes, LinkOption... options)
+			throws IOException {
+		String view = "basic";
+		int colon = attributes.indexOf(':');
+		if (colon >= 0) {
+			view = attributes.substring(0, colon);
+			attributes = attributes.substring(colon + 1);
+		}
+		if (!view.equals("basic") && !view.equals(BunyFileAttributeView.NAME)) {
+			throw new UnsupportedOperationException("View '" + view + "' not available");
+		}
+		return readAttributes(toBunyPath(path)).toMap(view, attributes);
+	}
+
+	@Override
+	public void setAttribute(Path path, String attribute, Object value, LinkOption... options) {
+		throw new ReadOnlyFileSystemException();
+	}
+}
@@ -0,0 +1,284 @@
+package zzx.buny.fs;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.WatchEvent.Kind;
+import java.nio.file.WatchEvent.Modifier;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A path inside a .buny archive. Components are separated by '/', and the root "/"
+ * corresponds to the top of the archive's name table (e.g. "/data/sound/a1.fsb").
+ */
+public class BunyPath implements Path {
+
+	private final BunyFileSystem fs;
+	private final String path;		// normalized separators, no trailing '/' (except the root)
+	private String[] names;			// lazily split components
+
+	BunyPath(BunyFileSystem fs, String path) {
+		this.fs = fs;
+		this.path = normalizeSeparators(path);
+	}
+
+	private static String normalizeSeparators(String path) {
+		StringBuilder sb = new StringBuilder(path.length());
+		char prev = 0;
+		for (int i = 0; i < path.length(); i++) {
+			char c = path.charAt(i);
+			if (c == '\\') {
+				c = '/';
+			}
+			if (c == '/' && prev == '/') {
+				continue;
+			}
+			sb.append(c);
+			prev = c;
+		}
+		if (sb.length() > 1 && sb.charAt(sb.length() - 1) == '/') {
+			sb.setLength(sb.length() - 1);
+		}
+		return sb.toString();
+	}
+
+	private String[] names() {
+		if (names == null) {
+			String relative = isAbsolute() ? path.substring(1) : path;
+			names = relative.isEmpty() ? new String[0] : relative.split("/");
+		}
+		return names;
+	}
+
+	private BunyPath checkPath(Path other) {
+		if (!(other instanceof BunyPath)) {
+			throw new ProviderMismatchException();
+		}
+		return (BunyPath) other;
+	}
+
+	/**
+	 * @return the name of this path inside the archive (absolute, normalized, without the leading '/')
+	 */
+	String toEntryName() {
+		String absolute = toAbsolutePath().normalize().path;
+		return absolute.substring(1);
+	}
+
+	@Override
+	public BunyFileSystem getFileSystem() {
+		return fs;
+	}
+
+	@Override
+	public boolean isAbsolute() {
+		return path.startsWith("/");
+	}
+
+	@Override
+	public Path getRoot() {
+		return isAbsolute() ? new BunyPath(fs, "/") : null;
+	}
+
+	@Override
+	public Path getFileName() {
+		String[] names = names();
+		if (path.isEmpty()) {
+			return this;
+		}
+		return names.length == 0 ? null : new BunyPath(fs, names[names.length - 1]);
+	}
+
+	@Override
+	public Path getParent() {
+		String[] names = names();
+		if (names.length == 0 || (names.length == 1 && !isAbsolute())) {
+			return null;
+		}
+		int cut = path.lastIndexOf('/');
+		return new BunyPath(fs, cut == 0 ? "/" : path.substring(0, cut));
+	}
+
+	@Override
+	public int getNameCount() {
+		return path.isEmpty() ? 1 : names().length;
+	}
+
+	@Override
+	public Path getName(int index) {
+		if (path.isEmpty() && index == 0) {
+			return this;
+		}
+		String[] names = names();
+		if (index < 0 || index >= names.length) {
+			throw new IllegalArgumentException("Invalid name index: " + index);
+		}
+		return new BunyPath(fs, names[index]);
+	}
+
+	@Override
+	public Path subpath(int beginIndex, int endIndex) {
+		String[] names = names();
+		if (beginIndex < 0 || endIndex > names.length || beginIndex >= endIndex) {
+			throw new IllegalArgumentException("Invalid subpath range: [" + beginIndex + ", " + endIndex + ")");
+		}
+		return new BunyPath(fs, String.join("/", Arrays.copyOfRange(names, beginIndex, endIndex)));
+	}
+
+	@Override
+	public boolean startsWith(Path other) {
+		if (!(other instanceof BunyPath) || other.getFileSystem() != fs) {
+			return false;
+		}
+		BunyPath o = (BunyPath) other;
+		if (o.isAbsolute() != isAbsolute()) {
+			return false;
+		}
+		String[] mine = names();
+		String[] theirs = o.names();
+		if (theirs.length > mine.length) {
+			return false;
+		}
+		for (int i = 0; i < theirs.length; i++) {
+			if (!theirs[i].equals(mine[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public boolean endsWith(Path other) {
+		if (!(other instanceof BunyPath) || other.getFileSystem() != fs) {
+			return false;
+		}
+		BunyPath o = (BunyPath) other;
+		if (o.isAbsolute()) {
+			return o.path.equals(path);
+		}
+		String[] mine = names();
+		String[] theirs = o.names();
+		if (theirs.length > mine.length) {
+			return false;
+		}
+		for (int i = 1; i <= theirs.length; i++) {
+			if (!theirs[theirs.length - i].equals(mine[mine.length - i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public BunyPath normalize() {
+		List<String> result = new ArrayList<>();
+		for (String name : names()) {
+			if (name.equals(".")) {
+				continue;
+			}
+			if (name.equals("..")) {
+				if (!result.isEmpty() && !result.get(result.size() - 1).equals("..")) {
+					result.remove(result.size() - 1);
+					continue;
+				}
+				if (isAbsolute()) {
+					continue;	// ".." of the root is the root
+				}
+			}
+			result.add(name);
+		}
+		return new BunyPath(fs, (isAbsolute() ? "/" : "") + String.join("/", result));
+	}
+
+	@Override
+	public Path resolve(Path other) {
+		BunyPath o = checkPath(other);
+		if (o.isAbsolute()) {
+			return o;
+		}
+		if (o.path.isEmpty()) {
+			return this;
+		}
+		if (path.isEmpty()) {
+			return o;
+		}
+		return new BunyPath(fs, path.equals("/") ? "/" + o.path : path + "/" + o.path);
+	}
+
+	@Override
+	public Path relativize(Path other) {
+		BunyPath o = checkPath(other);
+		if (o.isAbsolute() != isAbsolute()) {
+			throw new IllegalArgumentException("'other' is different type of Path");
+		}
+		String[] mine = names();
+		String[] theirs = o.names();
+		int common = 0;
+		while (common < mine.length && common < theirs.length && mine[common].equals(theirs[common])) {
+			common++;
+		}
+
+		List<String> result = new ArrayList<>();
+		for (int i = common; i < mine.length; i++) {
+			result.add("..");
+		}
+		for (int i = common; i < theirs.length; i++) {
+			result.add(theirs[i]);
+		}
+		return new BunyPath(fs, String.join("/", result));
+	}
+
+	@Override
+	public URI toUri() {
+		try {
+			return new URI(BunyFileSystemProvider.SCHEME,
+					fs.getArchivePath().toUri().toString() + "!" + toAbsolutePath().path, null);
+		} catch (URISyntaxException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	@Override
+	public BunyPath toAbsolutePath() {
+		return isAbsolute() ? this : new BunyPath(fs, "/" + path);
+	}
+
+	@Override
+	public Path toRealPath(LinkOption... options) throws IOException {
+		BunyPath real = toAbsolutePath().normalize();
+		fs.provider().checkAccess(real);
+		return real;
+	}
+
+	@Override
+	public WatchKey register(WatchService watcher, Kind<?>[] events, Modifier... modifiers) {
+		throw new UnsupportedOperationException("Watching a .buny archive is not supported");
+	}
+
+	@Override
+	public int compareTo(Path other) {
+		return path.compareTo(checkPath(other).path);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof BunyPath && ((BunyPath) obj).fs == fs && ((BunyPath) obj).path.equals(path);
+	}
+
+	@Override
+	public int hashCode() {
+		return path.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return path;
+	}
+}
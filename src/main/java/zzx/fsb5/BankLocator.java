@@ -0,0 +1,164 @@
+package zzx.fsb5;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import zzx.utils.LERandomAccessFile;
+
+/*
+ * Finds where the embedded .fsb starts in an FMOD .bank file.
+ *
+ * A .bank file is a RIFF file:
+ *
+ *   "RIFF" size "FEV "
+ *     chunk*            each chunk: 4-byte id, 4-byte size, data (padded to an even size)
+ *
+ * Chunks with the id "LIST" start with a 4-byte list type followed by sub-chunks.
+ * The sound data is in the "SND " chunk: some zero padding, so that the .fsb is aligned
+ * to 0x20 bytes in the file, then the .fsb itself.
+ *
+ * So the chunk structure is walked to jump straight to the "SND " chunk, and only its
+ * first bytes are searched for the "FSB5" magic. If the file doesn't look like that
+ * (or the walk leads nowhere), the whole file is scanned for the magic at every 0x20 bytes,
+ * reading it in large blocks.
+ *
+ * The results are cached by (path, length, last modified time), so opening the same
+ * mod file again doesn't search it again.
+ */
+class BankLocator {
+
+	private static final int FSB5_MAGIC = 0x35425346;	// "FSB5"
+	private static final int RIFF = 0x46464952;			// "RIFF"
+	private static final int FEV = 0x20564546;			// "FEV "
+	private static final int LIST = 0x5453494C;			// "LIST"
+	private static final int SND = 0x20444E53;			// "SND "
+
+	private static final int ALIGNMENT = 0x20;
+	private static final int SCAN_BLOCK_SIZE = 1 << 20;
+
+	private static final Map<String, Long> CACHE = new ConcurrentHashMap<>();
+
+	private BankLocator() {}
+
+	/**
+	 * @return the offset of the "FSB5" magic in this .bank file, cached by path, length and modification time
+	 */
+	static long findFsb(File file, LERandomAccessFile bank) throws IOException {
+		String key = file.getAbsolutePath() + '|' + file.length() + '|' + file.lastModified();
+		Long cached = CACHE.get(key);
+		if (cached != null) {
+			return cached;
+		}
+
+		long fsbStart = findFsb(bank);
+		CACHE.put(key, fsbStart);
+		return fsbStart;
+	}
+
+	/**
+	 * @return the offset of the "FSB5" magic in this .bank file
+	 */
+	static long findFsb(LERandomAccessFile bank) throws IOException {
+		long length = bank.length();
+
+		long sndChunk = findSndChunk(bank, length);
+		if (sndChunk >= 0) {
+			long dataStart = sndChunk + 8;
+			long dataEnd = Math.min(length, dataStart + (readInt(bank, sndChunk + 4) & 0xFFFFFFFFL));
+			// the padding before the .fsb is shorter than the alignment
+			long fsbStart = scan(bank, dataStart, Math.min(dataEnd, dataStart + ALIGNMENT + 4));
+			if (fsbStart >= 0) {
+				return fsbStart;
+			}
+		}
+
+		long fsbStart = scan(bank, 0, length);
+		if (fsbStart >= 0) {
+			return fsbStart;
+		}
+
+		// Not aligned at all: the old way of looking at the very last 4 bytes
+		long fallbackPos = Math.max(0, length - 4);
+		if (length >= 4 && readInt(bank, fallbackPos) == FSB5_MAGIC) {
+			return fallbackPos;
+		}
+
+		throw new IOException("FSB5 magic number not found in .bank file");
+	}
+
+	// @return the offset of the "SND " chunk, or -1 if this isn't a RIFF file with one
+	private static long findSndChunk(LERandomAccessFile bank, long length) throws IOException {
+		if (length < 12) {
+			return -1;
+		}
+		ByteBuffer riff = read(bank, 0, 12);
+		if (riff.getInt(0) != RIFF || riff.getInt(8) != FEV) {
+			return -1;
+		}
+		long riffEnd = Math.min(length, 8 + (riff.getInt(4) & 0xFFFFFFFFL));
+		return findSndChunk(bank, 12, riffEnd);
+	}
+
+	private static long findSndChunk(LERandomAccessFile bank, long position, long end) throws IOException {
+		while (position + 8 <= end) {
+			ByteBuffer header = read(bank, position, 8);
+			int id = header.getInt(0);
+			long size = header.getInt(4) & 0xFFFFFFFFL;
+			if (size > end - position - 8) {
+				return -1;	// broken chunk, don't trust anything after it
+			}
+
+			if (id == SND) {
+				return position;
+			}
+			if (id == LIST && size >= 4) {
+				long found = findSndChunk(bank, position + 12, position + 8 + size);
+				if (found >= 0) {
+					return found;
+				}
+			}
+
+			position += 8 + size + (size & 1);
+		}
+		return -1;
+	}
+
+	/*
+	 * @return the first offset in [start, end) which is a multiple of 0x20 and holds the magic,
+	 *         or -1 if there is none
+	 */
+	private static long scan(LERandomAccessFile bank, long start, long end) throws IOException {
+		long position = (start + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+		ByteBuffer block = ByteBuffer.allocate((int) Math.min(SCAN_BLOCK_SIZE, Math.max(4, end - position)))
+				.order(ByteOrder.LITTLE_ENDIAN);
+
+		while (position <= end - 4) {
+			// block boundaries are aligned, so every probe in a block is too
+			int n = (int) Math.min(block.capacity(), end - position);
+			block.clear().limit(n);
+			bank.readFully(block, position);
+
+			for (int i = 0; i <= n - 4; i += ALIGNMENT) {
+				if (block.getInt(i) == FSB5_MAGIC) {
+					return position + i;
+				}
+			}
+			position += n;
+		}
+		return -1;
+	}
+
+	private static int readInt(LERandomAccessFile bank, long position) throws IOException {
+		return read(bank, position, 4).getInt(0);
+	}
+
+	private static ByteBuffer read(LERandomAccessFile bank, long position, int size) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+		bank.readFully(buffer, position);
+		return buffer;
+	}
+}
@@ -1,6 +1,7 @@
 package zzx.fsb5;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import zzx.utils.LERandomAccessFile;
 
@@ -8,6 +9,9 @@ public abstract class Chunk {
 	private ChunkMode mode;
 	public abstract void writeTo(LERandomAccessFile dest) throws IOException;
 	
+	// Writes the same bytes as writeTo(LERandomAccessFile) into a little-endian buffer
+	public abstract void writeTo(ByteBuffer dest);
+	
 	public Chunk(ChunkMode mode) {
 		this.mode = mode;
 	}
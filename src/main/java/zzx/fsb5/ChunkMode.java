@@ -2,6 +2,10 @@ package zzx.fsb5;
 
 import static zzx.fsb5.Config.*;
 
+/*
+ * The static methods work on the raw 32-bit value, so walking or rewriting the chunks of
+ * a whole sample table doesn't need a ChunkMode object per chunk.
+ */
 public class ChunkMode {
 	
 	private final int chunkMode;
@@ -15,26 +19,50 @@ public class ChunkMode {
 	}
 
 	public boolean isLast() {
-    	return getBits(chunkMode, 0, 0) == 0;
+    	return isLast(chunkMode);
     }
     
     public int getSize() {
-    	return getBits(chunkMode, 1, 24);
+    	return getSize(chunkMode);
     }
     
     public int getType() {
-    	return getBits(chunkMode, 25, 31);
+    	return getType(chunkMode);
     }
     
     public ChunkMode setIsLast(boolean isLastChunk) {
-        return new ChunkMode(setBits(chunkMode, 0, 0, isLastChunk ? 0 : 1));
+        return new ChunkMode(setIsLast(chunkMode, isLastChunk));
     } 
     
     public ChunkMode setSize(int chunkSize) {
-    	return new ChunkMode(setBits(chunkMode, 1, 24, chunkSize));
+    	return new ChunkMode(setSize(chunkMode, chunkSize));
     }
     
     public ChunkMode setType(int chunkType) {
-    	return new ChunkMode(setBits(chunkMode, 25, 31, chunkType));
+    	return new ChunkMode(setType(chunkMode, chunkType));
+    }
+    
+    public static boolean isLast(int chunkMode) {
+    	return getBits(chunkMode, 0, 0) == 0;
+    }
+    
+    public static int getSize(int chunkMode) {
+    	return getBits(chunkMode, 1, 24);
+    }
+    
+    public static int getType(int chunkMode) {
+    	return getBits(chunkMode, 25, 31);
+    }
+    
+    public static int setIsLast(int chunkMode, boolean isLastChunk) {
+    	return setBits(chunkMode, 0, 0, isLastChunk ? 0 : 1);
+    }
+    
+    public static int setSize(int chunkMode, int chunkSize) {
+    	return setBits(chunkMode, 1, 24, chunkSize);
+    }
+    
+    public static int setType(int chunkMode, int chunkType) {
+    	return setBits(chunkMode, 25, 31, chunkType);
     }
 }
@@ -1,6 +1,11 @@
 package zzx.fsb5;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -42,77 +47,172 @@ public class Fsb5Builder {
 	}
 	
 	public void buildTo(LERandomAccessFile raf) throws IOException {
-		long baseOffset = raf.getFilePointer();
-		int soundCount = getSoundCount();
-		
-		// write header part
-		// 0x00 ~ 0x1B
-		raf.writeString("FSB5", "FSB5".length());	// id string
-		raf.writeInt(version);						// version
-		raf.writeInt(soundCount);					// sound count
-		raf.writeInt(0);							// table size(Temporarily use 0 to occupy space)
-		raf.writeInt(nameTableSize);				// name table size
-		raf.writeInt(0);							// data size(Temporarily use 0 to occupy space)
-		raf.writeInt(codec);						// codec
-		
-		// 0x1C ~ 0x3B
-		raf.write(unknownBytes, 0, 32);
+		buildTo(raf.getWritableChannel());
+	}
+	
+	/*
+	 * The positions of everything in the built file, worked out before anything is written,
+	 * so that the whole file can be written in a single forward pass.
+	 */
+	private static class Layout {
+		int tableSize;
+		long[] dataOffsets;	// relative to the start of the data part, aligned to 16 bytes
+		long dataSize;		// including the padding after the last sound
+	}
+	
+	private Layout computeLayout() {
+		Layout layout = new Layout();
+		layout.dataOffsets = new long[getSoundCount()];
 		
-		// write table part
 		long dataOffset = 0;
-		for (int i = 0; i < soundCount; i++) {
+		for (int i = 0; i < getSoundCount(); i++) {
 			Sound sound = sounds.get(i);
-			
-			// write sampleMode (need to update it's data offset)
-			SampleMode newSampleMode = sound.getSampleMode().setDataOffset(dataOffset);
-			raf.writeLong(newSampleMode.get());
-			
-			// write chunk
-			for (Chunk chunk : sound.getAllChunks()) {
-				chunk.writeTo(raf);
-			}
+			layout.tableSize += sound instanceof SoundFromFsb ?
+					((SoundFromFsb) sound).getTableEntrySize() : getTableEntrySize(sound);
+			layout.dataOffsets[i] = dataOffset;
 			
 			// calc next sound's data offset(must be aligned to a 16-byte boundary)
 		    dataOffset += sound.getDataSize();
 		    dataOffset += calcPadding(dataOffset);
 		}
+		layout.dataSize = dataOffset;
 		
-		int tableSize = (int) (raf.getFilePointer() - baseOffset - Config.HEADER_SIZE);
+		return layout;
+	}
+	
+	/**
+	 * @return the size of the file {@link #buildTo} would write with the current sounds
+	 */
+	public long getBuildSize() {
+		Layout layout = computeLayout();
+		return Config.HEADER_SIZE + layout.tableSize + nameTableSize + layout.dataSize;
+	}
+	
+	/**
+	 * Writes the .fsb file at the current position of the channel, in one forward pass
+	 * (no seeking back), so the channel may as well be a pipe or a socket.
+	 */
+	public void buildTo(WritableByteChannel out) throws IOException {
+		int soundCount = getSoundCount();
+		Layout layout = computeLayout();
 		
-		// write name table part
-		// do nothing...
+		// header part
+		ByteBuffer header = ByteBuffer.allocate((int) Config.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		// 0x00 ~ 0x1B
+		header.put("FSB5".getBytes(StandardCharsets.US_ASCII));	// id string
+		header.putInt(version);						// version
+		header.putInt(soundCount);					// sound count
+		header.putInt(layout.tableSize);			// table size
+		header.putInt(nameTableSize);				// name table size
+		header.putInt((int) layout.dataSize);		// data size
+		header.putInt(codec);						// codec
+		// 0x1C ~ 0x3B
+		header.put(unknownBytes, 0, 32);
+		header.flip();
 		
-		// write data part
-		long dataPartStart = Config.HEADER_SIZE + tableSize + nameTableSize;
-		dataOffset = 0;
+		// table part
+		ByteBuffer table = ByteBuffer.allocate(layout.tableSize).order(ByteOrder.LITTLE_ENDIAN);
 		for (int i = 0; i < soundCount; i++) {
+			writeTableEntry(table, sounds.get(i), layout.dataOffsets[i]);
+		}
+		table.flip();
+		
+		// name table part
+		// do nothing...
+		
+		writeFully(out, header, table);
+		
+		// data part
+		for (int i = 0; i < soundCount; ) {
 			Sound sound = sounds.get(i);
 			
-			long actualDataOffset = baseOffset + dataPartStart + dataOffset;
-			raf.seek(actualDataOffset);
-			sound.writeDataTo(raf);
-			raf.seek(actualDataOffset + sound.getDataSize());
+			/*
+			 * Unchanged sounds which were consecutive in their original .fsb are still laid out
+			 * exactly the same way (each data slot already includes its padding),
+			 * so a whole run of them is copied with a single transfer.
+			 */
+			int runEnd = i + 1;
+			long runSize = sound.getDataSize();
+			while (runEnd < soundCount && SoundFromFsb.isDataContiguous(sounds.get(runEnd - 1), sounds.get(runEnd))) {
+				runSize += sounds.get(runEnd).getDataSize();
+				runEnd++;
+			}
 			
-		    dataOffset += sound.getDataSize();
-		    int padding = calcPadding(dataOffset);
-		    dataOffset += padding;
-		    
-		    // padding 0 to align 16 bytes
-		    if (padding > 0) {
-		        raf.write(ZERO_PADDING_BUFFER, 0, padding);
-		    }
+			if (runEnd - i > 1) {
+				((SoundFromFsb) sound).writeDataTo(out, runSize);
+			} else {
+				sound.writeDataTo(out);
+			}
+			
+			// padding 0 to align 16 bytes
+			long end = layout.dataOffsets[runEnd - 1] + sounds.get(runEnd - 1).getDataSize();
+			long next = runEnd < soundCount ? layout.dataOffsets[runEnd] : layout.dataSize;
+			if (next > end) {
+				writeFully(out, ByteBuffer.wrap(ZERO_PADDING_BUFFER, 0, (int) (next - end)));
+			}
+			
+			i = runEnd;
+		}
+	}
+	
+	private static void writeFully(WritableByteChannel out, ByteBuffer... buffers) throws IOException {
+		long remaining = 0;
+		for (ByteBuffer buffer : buffers) {
+			remaining += buffer.remaining();
 		}
 		
-		int dataSize = (int) (raf.getFilePointer() - dataPartStart - baseOffset);
-		long fileEnd = raf.getFilePointer();
-		
-		// rewrite part of the header
-		raf.seek(baseOffset + 0 + 4 + 4 + 4);
-		raf.writeInt(tableSize);
-		raf.skipBytes(4);
-		raf.writeInt(dataSize);
+		if (out instanceof GatheringByteChannel) {
+			// one write call for all buffers (usually a single writev)
+			GatheringByteChannel gathering = (GatheringByteChannel) out;
+			while (remaining > 0) {
+				remaining -= gathering.write(buffers);
+			}
+		} else {
+			for (ByteBuffer buffer : buffers) {
+				while (buffer.hasRemaining()) {
+					out.write(buffer);
+				}
+			}
+		}
+	}
+	
+	private static void writeTableEntry(ByteBuffer dest, Sound sound, long dataOffset) {
+		if (sound instanceof SoundFromFsb) {
+			// copied from the sample table it was read from, nothing is decoded
+			((SoundFromFsb) sound).writeTableEntryTo(dest, dataOffset);
+			return;
+		}
+		dest.putLong(SampleMode.setDataOffset(sound.getSampleMode().get(), dataOffset));
+		for (Chunk chunk : sound.getAllChunks()) {
+			chunk.writeTo(dest);
+		}
+	}
+
+	/**
+	 * Writes the table item of a sound (its SampleMode followed by its chunks)
+	 * at the current file pointer.
+	 * 
+	 * @param dataOffset the offset of the sound's data, relative to the start of the data part
+	 */
+	public static void writeTableEntry(LERandomAccessFile raf, Sound sound, long dataOffset) throws IOException {
+		// write sampleMode (need to update it's data offset)
+		raf.writeLong(SampleMode.setDataOffset(sound.getSampleMode().get(), dataOffset));
 		
-		raf.seek(fileEnd);
+		// write chunk
+		for (Chunk chunk : sound.getAllChunks()) {
+			chunk.writeTo(raf);
+		}
+	}
+	
+	/**
+	 * @return the number of bytes {@link #writeTableEntry} writes for this sound
+	 */
+	public static int getTableEntrySize(Sound sound) {
+		int size = Long.BYTES;
+		for (Chunk chunk : sound.getAllChunks()) {
+			size += Integer.BYTES + chunk.getMode().getSize();
+		}
+		return size;
 	}
 
 	public void setVersion(int version) {
@@ -3,16 +3,23 @@ package zzx.fsb5;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 
 import zzx.utils.LERandomAccessFile;
 import zzx.utils.LERandomAccessFileSlice;
+import zzx.utils.ZipEntryFile;
 
 public class Fsb5Reader implements Closeable {
 	
 	private LERandomAccessFile raf;
 	
+	// Only set for readers whose file is closed and reopened by a pool, see Fsb5ReaderPool
+	private final File file;
+	private final Fsb5ReaderPool pool;
+	
 	private String idString;
 	private int version;
 	private int soundCount;
@@ -24,6 +31,9 @@ public class Fsb5Reader implements Closeable {
 	private String[] names;
 	private SoundFromFsb[] sounds;
 	
+	// The whole sample table, read in one go. Sounds decode their chunks from it on demand.
+	private ByteBuffer table;
+	
 	private HashMap<String, SoundFromFsb> nameToSound;
 	
 	private final long dataPartOffset;
@@ -33,11 +43,26 @@ public class Fsb5Reader implements Closeable {
     }
 	
 	public Fsb5Reader(File file) throws IOException {
-		this(new LERandomAccessFile(file, "r"), isBankFile(file));
+		this(open(file), null, null);
+	}
+	
+	/**
+	 * Reads a .fsb or .bank file whose file handle is managed by the pool: it may be closed
+	 * once the file is parsed, and is reopened whenever the data of a sound is needed.
+	 */
+	public Fsb5Reader(File file, Fsb5ReaderPool pool) throws IOException {
+		this(open(file), file, pool);
+		pool.opened(this);
 	}
 	
 	public Fsb5Reader(LERandomAccessFile raf, boolean isBank) throws IOException {
-		this.raf = isBank ? createFsbSlice(raf) : raf;
+		this(isBank ? createFsbSlice(raf, BankLocator.findFsb(raf)) : raf, null, null);
+	}
+	
+	private Fsb5Reader(LERandomAccessFile raf, File file, Fsb5ReaderPool pool) throws IOException {
+		this.raf = raf;
+		this.file = file;
+		this.pool = pool;
 		
         readHeader();
         
@@ -49,6 +74,20 @@ public class Fsb5Reader implements Closeable {
         readSounds();
 	}
 	
+	private static LERandomAccessFile open(File file) throws IOException {
+		LERandomAccessFile raf = ZipEntryFile.open(file);
+		if (!isBankFile(file)) {
+			return raf;
+		}
+		try {
+			// the position of the .fsb is cached per file, see BankLocator
+			return createFsbSlice(raf, BankLocator.findFsb(file, raf));
+		} catch (IOException e) {
+			raf.close();
+			throw e;
+		}
+	}
+	
 	private static boolean isBankFile(File file) {
         return file.getName().toLowerCase().endsWith(".bank");
     }
@@ -59,42 +98,17 @@ public class Fsb5Reader implements Closeable {
      * By skipping that part and extracting the latter section,
      * it can be converted into a valid .fsb file.
      */
-	private static LERandomAccessFile createFsbSlice(LERandomAccessFile bank) throws IOException {
-		long fsbStart = findFsbMagic(bank);
-
+	private static LERandomAccessFile createFsbSlice(LERandomAccessFile bank, long fsbStart) throws IOException {
         // Extract all remaining bytes starting from the magic number "FSB5"
         return new LERandomAccessFileSlice(bank, fsbStart, bank.length() - fsbStart, true);
 	}
-    
-	private static long findFsbMagic(LERandomAccessFile bank) throws IOException {
-	    final int ALIGNMENT = 0x20;
-	    long position = 0;
-	    
-	    while (position <= bank.length() - 4) {
-	        bank.seek(position);
-	        
-	        int magic = bank.readInt();
-	        if (magic == 0x35425346) {  // "FSB5"
-	            return position;
-	        }
-	        
-	        position += ALIGNMENT;	// Interval 0x20 bytes each time
-	    }
-	    
-	    long fallbackPos = Math.max(0, bank.length() - 4);
-	    bank.seek(fallbackPos);
-	    if (bank.readInt() == 0x35425346) {
-	        return fallbackPos;
-	    }
-	    
-	    throw new IOException("FSB5 magic number not found in .bank file");
-	}
 
     private void readHeader() throws IOException {
+    	ByteBuffer header = readBlock(0x00, (int) Config.HEADER_SIZE);
+    	
     	// 0x00 ~ 0x03: a magic string, its value should be "FSB5"
-        raf.seek(0x00);
         byte[] magic = new byte[4];
-        raf.readFully(magic);
+        header.get(magic);
         idString = new String(magic, StandardCharsets.US_ASCII).trim();
         
         if (!idString.equals("FSB5")) {
@@ -102,12 +116,12 @@ public class Fsb5Reader implements Closeable {
         }
         
         // 0x04 ~ 0x1B: header info
-        version = raf.readInt();		// always 1
-        soundCount = raf.readInt();
-        tableSize = raf.readInt();
-        nameTableSize = raf.readInt();	// always 0, the sound name is stored separately in .flo file
-        dataSize = raf.readInt();
-        codec = raf.readInt();			// always 0x0F, indicating that its internal audio is Vorbis encoded
+        version = header.getInt();		// always 1
+        soundCount = header.getInt();
+        tableSize = header.getInt();
+        nameTableSize = header.getInt();	// always 0, the sound name is stored separately in .flo file
+        dataSize = header.getInt();
+        codec = header.getInt();			// always 0x0F, indicating that its internal audio is Vorbis encoded
         
         if (version != 1) {
         	/*
@@ -149,35 +163,52 @@ public class Fsb5Reader implements Closeable {
          */
     }
     
+    /*
+     * Reads a block of the file with a single positional read.
+     * Going through readInt()/readLong() instead costs one (or, on a slice, several) syscalls
+     * per field, which adds up to tens of thousands for a level .fsb with thousands of sounds.
+     */
+    private ByteBuffer readBlock(long offset, int length) throws IOException {
+    	ByteBuffer block = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    	raf.readFully(block, offset);
+    	block.flip();
+    	return block;
+    }
+    
+    /*
+     * The name table starts with one 32-bit offset per sound (relative to the start of the table),
+     * followed by the null-terminated names themselves.
+     */
     private void readNames() throws IOException {
     	names = new String[getSoundCount()];
     	
-    	long nameTableStart = Config.HEADER_SIZE + getTableSize();
-    	long[] nameOffsets = new long[getSoundCount()];
+    	ByteBuffer nameTable = readBlock(Config.HEADER_SIZE + getTableSize(), getNameTableSize());
+    	byte[] bytes = nameTable.array();
     	
-    	raf.seek(nameTableStart);
     	for (int i = 0; i < getSoundCount(); i++) {
-    		nameOffsets[i] = nameTableStart + raf.readInt();
-    	}
-    	
-    	for (int i = 0; i < getSoundCount(); i++) {
-    		raf.seek(nameOffsets[i]);
-    		names[i] = raf.readString();
+    		int start = nameTable.getInt(i * 4);
+    		int end = start;
+    		while (end < bytes.length && bytes[end] != 0) {
+    			end++;
+    		}
+    		names[i] = new String(bytes, start, end - start, StandardCharsets.UTF_8).trim();
     	}
     }
     
     private void readSounds() throws IOException {
+    	table = readBlock(Config.HEADER_SIZE, getTableSize());
     	sounds = new SoundFromFsb[getSoundCount()];
     	
-    	long offset = Config.HEADER_SIZE;
+    	int offset = 0;
     	for (int i = 0; i < getSoundCount(); i++) {
     		SoundFromFsb sound = new SoundFromFsb(this, i, offset, containNames() ? names[i] : null);
     		offset = offset + sound.getSizeInTable();
     		sounds[i] = sound;
     	}
     	
+    	long dataPartSize = raf.length() - getDataPartOffset();
     	for (SoundFromFsb sound : sounds) {
-    		sound.init();
+    		sound.init(dataPartSize);
     	}
     	
     	if (containNames()) {
@@ -232,17 +263,74 @@ public class Fsb5Reader implements Closeable {
 		return dataPartOffset;
 	}
 	
+	/*
+	 * Where things are inside the .fsb file, for patching a sound in place.
+	 * The data slot of a sound spans up to the data of the next sound, padding included.
+	 */
+	public long getTableEntryOffset(int i) {
+		return Config.HEADER_SIZE + sounds[i].getOffsetInTable();
+	}
+	
+	public int getTableEntrySize(int i) {
+		return sounds[i].getSizeInTable();
+	}
+	
+	public long getDataSlotOffset(int i) {
+		return getDataPartOffset() + sounds[i].getDataOffset();
+	}
+	
+	public long getDataSlotSize(int i) {
+		return sounds[i].getDataSize();
+	}
+	
 	public boolean containNames() {
 		return getNameTableSize() > 0;
 	}
 	
-	LERandomAccessFile getRaf() {
+	/*
+	 * Returns the open file, which can't be closed by the pool until releaseRaf() is called.
+	 * Every call must be paired with a call to releaseRaf().
+	 */
+	LERandomAccessFile acquireRaf() throws IOException {
+		return pool == null ? raf : pool.acquire(this);
+	}
+	
+	void releaseRaf() throws IOException {
+		if (pool != null) {
+			pool.release(this);
+		}
+	}
+	
+	// The following ones are only called by the pool, with its lock held
+	
+	LERandomAccessFile getOpenRaf() {
 		return raf;
 	}
+	
+	void reopen() throws IOException {
+		raf = open(file);
+	}
+	
+	void closeFile() throws IOException {
+		if (raf != null) {
+			raf.close();
+			raf = null;
+		}
+	}
+	
+	/*
+	 * The sample table (0x3C ~ 0x3C + tableSize), indexed from the start of the table.
+	 * Use absolute gets only, since it is shared by all sounds.
+	 */
+	ByteBuffer getTable() {
+		return table;
+	}
     
     @Override
     public void close() throws IOException {
-        if (raf != null) {
+    	if (pool != null) {
+    		pool.close(this);
+    	} else if (raf != null) {
             raf.close();
         }
     }
@@ -0,0 +1,82 @@
+package zzx.fsb5;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import zzx.utils.LERandomAccessFile;
+
+/*
+ * Bounds the number of files kept open by the readers created with it.
+ *
+ * A pooled reader keeps its header, sample table and names in memory for its whole life,
+ * but its file is only needed again when the data of its sounds is copied. So when more than
+ * maxOpen files are open, the least recently used ones are closed, and they are reopened
+ * (without parsing anything again) the next time their data is needed.
+ *
+ * A file is never closed while it is in use: SoundFromFsb pins it with acquire() for the
+ * duration of a copy and unpins it with release().
+ */
+public class Fsb5ReaderPool {
+
+	private final int maxOpen;
+
+	// The readers whose file is open, least recently used first -> the number of pins
+	private final LinkedHashMap<Fsb5Reader, Integer> open = new LinkedHashMap<>(16, 0.75f, true);
+
+	public Fsb5ReaderPool(int maxOpen) {
+		if (maxOpen < 1) {
+			throw new IllegalArgumentException("maxOpen must be at least 1: " + maxOpen);
+		}
+		this.maxOpen = maxOpen;
+	}
+
+	// Called once the reader has parsed its file, which is still open
+	synchronized void opened(Fsb5Reader reader) throws IOException {
+		open.put(reader, 0);
+		evict();
+	}
+
+	// Returns the open file of the reader, reopening it if needed, and pins it until release()
+	synchronized LERandomAccessFile acquire(Fsb5Reader reader) throws IOException {
+		Integer pins = open.get(reader);
+		if (pins == null) {
+			reader.reopen();
+			pins = 0;
+		}
+		open.put(reader, pins + 1);
+		evict();
+		return reader.getOpenRaf();
+	}
+
+	synchronized void release(Fsb5Reader reader) throws IOException {
+		Integer pins = open.get(reader);
+		if (pins != null) {
+			open.put(reader, pins - 1);
+		}
+		evict();
+	}
+
+	// Forgets the reader and closes its file
+	synchronized void close(Fsb5Reader reader) throws IOException {
+		open.remove(reader);
+		reader.closeFile();
+	}
+
+	public synchronized int getOpenCount() {
+		return open.size();
+	}
+
+	private void evict() throws IOException {
+		Iterator<Map.Entry<Fsb5Reader, Integer>> it = open.entrySet().iterator();
+		while (open.size() > maxOpen && it.hasNext()) {
+			Map.Entry<Fsb5Reader, Integer> entry = it.next();
+			if (entry.getValue() == 0) {
+				Fsb5Reader reader = entry.getKey();
+				it.remove();
+				reader.closeFile();
+			}
+		}
+	}
+}
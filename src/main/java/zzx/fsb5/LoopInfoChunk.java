@@ -1,6 +1,7 @@
 package zzx.fsb5;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import zzx.utils.LERandomAccessFile;
 
@@ -29,6 +30,13 @@ public class LoopInfoChunk extends Chunk {
 	    dest.writeInt(loopEnd);
 	}
 	
+	@Override
+	public void writeTo(ByteBuffer dest) {
+		dest.putInt(getMode().get());
+		dest.putInt(loopStart);
+		dest.putInt(loopEnd);
+	}
+	
 	@Override
 	public String toString() {
 		return "loopInfo: [Start = " + loopStart + ", End = " + loopEnd + "]";
@@ -2,6 +2,10 @@ package zzx.fsb5;
 
 import static zzx.fsb5.Config.*;
 
+/*
+ * The static methods work on the raw 64-bit value, so that e.g. rewriting the data offsets
+ * of a whole sample table doesn't need a SampleMode object per sound.
+ */
 public class SampleMode {
 	
 	private final long sampleMode;
@@ -19,53 +23,93 @@ public class SampleMode {
 	}
 	
 	public boolean hasChunk() {
-    	return getBits(sampleMode, 0, 0) == 1;
+    	return hasChunk(sampleMode);
     }
     
     public int getSampleRate() {
-		return SAMPLE_RATE_MAP[(int) getBits(sampleMode, 1, 4)];
+		return getSampleRate(sampleMode);
 	}
     
     public int getChannels() {
-		return CHANNELS_MAP[(int) getBits(sampleMode, 5, 6)];
+		return getChannels(sampleMode);
 	}
     
     public long getDataOffset() {
-    	return getBits(sampleMode, 6, 33) * 16;
+    	return getDataOffset(sampleMode);
     }
     
     public int getSampleNum() {
-		return (int) getBits(sampleMode, 34, 63);
+		return getSampleNum(sampleMode);
 	}
     
     public SampleMode setHasChunk(boolean hasChunk) {
-        return new SampleMode(setBits(sampleMode, 0, 0, hasChunk ? 1 : 0));
+        return new SampleMode(setHasChunk(sampleMode, hasChunk));
+    }
+    
+    public SampleMode setSampleRate(int sampleRate) {
+        return new SampleMode(setSampleRate(sampleMode, sampleRate));
+    }
+    
+    public SampleMode setChannels(int channels) {
+        return new SampleMode(setChannels(sampleMode, channels));
+    }
+    
+    public SampleMode setDataOffset(long dataOffset) {
+        return new SampleMode(setDataOffset(sampleMode, dataOffset));
+    }
+    
+    public SampleMode setSampleNum(long sampleNum) {
+    	return new SampleMode(setSampleNum(sampleMode, sampleNum));
+    }
+    
+    public static boolean hasChunk(long sampleMode) {
+    	return getBits(sampleMode, 0, 0) == 1;
+    }
+    
+    public static int getSampleRate(long sampleMode) {
+		return SAMPLE_RATE_MAP[(int) getBits(sampleMode, 1, 4)];
+	}
+    
+    public static int getChannels(long sampleMode) {
+		return CHANNELS_MAP[(int) getBits(sampleMode, 5, 6)];
+	}
+    
+    public static long getDataOffset(long sampleMode) {
+    	return getBits(sampleMode, 6, 33) * 16;
     }
     
-    public SampleMode setSampleRate( int sampleRate) {
+    public static int getSampleNum(long sampleMode) {
+		return (int) getBits(sampleMode, 34, 63);
+	}
+    
+    public static long setHasChunk(long sampleMode, boolean hasChunk) {
+        return setBits(sampleMode, 0, 0, hasChunk ? 1 : 0);
+    }
+    
+    public static long setSampleRate(long sampleMode, int sampleRate) {
         Integer index = REVERSED_SAMPLE_RATE_MAP.get(sampleRate);
         if (index == null) {
             throw new IllegalArgumentException("Invalid Sample Rate: " + sampleRate + 
                 ", Valid value: " + java.util.Arrays.toString(SAMPLE_RATE_MAP));
         }
-        return new SampleMode(setBits(sampleMode, 1, 4, index));
+        return setBits(sampleMode, 1, 4, index);
     }
     
-    public SampleMode setChannels(int channels) {
+    public static long setChannels(long sampleMode, int channels) {
         Integer index = REVERSED_CHANNELS_MAP.get(channels);
         if (index == null) {
             throw new IllegalArgumentException("Invalid Channels: " + channels + 
                 ", Valid value: " + java.util.Arrays.toString(CHANNELS_MAP));
         }
-        return new SampleMode(setBits(sampleMode, 5, 6, index));
+        return setBits(sampleMode, 5, 6, index);
     }
     
-    public SampleMode setDataOffset(long dataOffset) {
+    public static long setDataOffset(long sampleMode, long dataOffset) {
         long adjustedOffset = dataOffset / 16;
-        return new SampleMode(setBits(sampleMode, 6, 33, adjustedOffset));
+        return setBits(sampleMode, 6, 33, adjustedOffset);
     }
     
-    public SampleMode setSampleNum(long sampleNum) {
-    	return new SampleMode(setBits(sampleMode, 34, 63, sampleNum));
+    public static long setSampleNum(long sampleMode, long sampleNum) {
+    	return setBits(sampleMode, 34, 63, sampleNum);
     }
 }
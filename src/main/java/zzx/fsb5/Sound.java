@@ -1,6 +1,7 @@
 package zzx.fsb5;
 
 import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
 import java.util.List;
 
 import zzx.utils.LERandomAccessFile;
@@ -17,6 +18,9 @@ public interface Sound {
 	
 	void writeDataTo(LERandomAccessFile raf) throws IOException;
 	
+	// Writes the data at the current position of the channel
+	void writeDataTo(WritableByteChannel dest) throws IOException;
+	
 	default int getSampleNum() {
 		return getSampleMode().getSampleNum();
 	}
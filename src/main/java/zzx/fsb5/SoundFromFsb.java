@@ -1,6 +1,8 @@
 package zzx.fsb5;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -10,11 +12,13 @@ public class SoundFromFsb implements Sound {
 	
 	private final Fsb5Reader fsb5;
 	private final int index;
-	private final long sizeInTable;
+	private final int offsetInTable;
+	private final int sizeInTable;
 	
 	private final SampleMode sampleMode;
+	private final long rawSampleMode;
 	private long dataSize = 0;
-	private List<Chunk> chunks = new ArrayList<>();
+	private List<Chunk> chunks;		// materialised on first use, see getAllChunks()
 	
 	private String name;
 
@@ -27,21 +31,48 @@ public class SoundFromFsb implements Sound {
 	 *
 	 * 2. A series of Chunks. Each Chunk consists of a 32-bit value called ChunkMode,
 	 *    followed by chunk data of variable size.
+	 *
+	 * Only the SampleMode is decoded here. The chunk headers are just walked to find where
+	 * the next item starts; the chunks themselves are decoded from the table when first needed.
 	 */
-	SoundFromFsb(Fsb5Reader fsb5, int index, long offsetInTable, String name) throws IOException {
+	SoundFromFsb(Fsb5Reader fsb5, int index, int offsetInTable, String name) throws IOException {
 		this.fsb5 = fsb5;
 		this.index = index;
+		this.offsetInTable = offsetInTable;
 		this.name = name;
-		LERandomAccessFile raf = fsb5.getRaf();
-		raf.seek(offsetInTable);
+		ByteBuffer table = fsb5.getTable();
 		
 		// 1. sample mode
-		sampleMode = new SampleMode(raf.readLong());
+		rawSampleMode = table.getLong(offsetInTable);
+		sampleMode = new SampleMode(rawSampleMode);
+		int position = offsetInTable + 8;
+		
+		// 2. skip all chunks
+		boolean endOfChunk = !SampleMode.hasChunk(rawSampleMode);
+		while (!endOfChunk) {
+			if (position + 4 > table.limit()) {
+				throw new IOException("The chunks of sound " + index + " run past the end of the sample table");
+			}
+			int chunkMode = table.getInt(position);
+			position += 4 + ChunkMode.getSize(chunkMode);
+			endOfChunk = ChunkMode.isLast(chunkMode);
+		}
+		
+		if (position > table.limit()) {
+			throw new IOException("The chunks of sound " + index + " run past the end of the sample table");
+		}
+		sizeInTable = position - offsetInTable;
+	}
+	
+	private List<Chunk> readChunks() {
+		ByteBuffer table = fsb5.getTable();
+		List<Chunk> chunks = new ArrayList<>();
+		int position = offsetInTable + 8;
 		
-		// 2. all chunks
 		boolean endOfChunk = !hasChunk();
 		while (!endOfChunk) {
-			ChunkMode chunkMode = new ChunkMode(raf.readInt());
+			ChunkMode chunkMode = new ChunkMode(table.getInt(position));
+			position += 4;
 			
 			int type = chunkMode.getType();
 			int size = chunkMode.getSize();
@@ -50,43 +81,95 @@ public class SoundFromFsb implements Sound {
 			switch (type) {
 			case 0x3:
 				// loop info
-				if (size != 8) {
-					throw new RuntimeException("The size of the loop info chunk can only be 8");
-				}
-				int loopStart = raf.readInt();
-				int loopEnd = raf.readInt() + 1;
+				checkLoopInfoSize(size);
+				int loopStart = table.getInt(position);
+				int loopEnd = table.getInt(position + 4) + 1;
 				chunks.add(new LoopInfoChunk(chunkMode, loopStart, loopEnd));
 				break;
 			case 0xb:
 				// encoding-related information
 				// For more information, see the comments in the ExtraDataChunk class
-				byte[] extraData = new byte[size];
-				raf.readFully(extraData);
-				chunks.add(new ExtraDataChunk(chunkMode, extraData));
+				chunks.add(new ExtraDataChunk(chunkMode, table.array(), position, size));
 				break;
 			default:
 				// unknown
-				byte[] unknownData = new byte[size];
-				raf.readFully(unknownData);
-				chunks.add(new UnknownChunk(chunkMode, unknownData));
+				chunks.add(new UnknownChunk(chunkMode, table.array(), position, size));
 			}
+			position += size;
 		}
 		
-		sizeInTable = raf.getFilePointer() - offsetInTable;
+		return chunks;
+	}
+	
+	private static void checkLoopInfoSize(int size) {
+		if (size != 8) {
+			throw new RuntimeException("The size of the loop info chunk can only be 8");
+		}
+	}
+	
+	/*
+	 * Writes the same bytes as Fsb5Builder.writeTableEntry(ByteBuffer, Sound, long) would with
+	 * getAllChunks(), but straight from the sample table, without decoding the chunks into objects.
+	 * Once the chunks have been decoded they may have been changed, so they are used instead.
+	 */
+	void writeTableEntryTo(ByteBuffer dest, long dataOffset) {
+		List<Chunk> decoded;
+		synchronized (this) {
+			decoded = chunks;
+		}
+		dest.putLong(SampleMode.setDataOffset(rawSampleMode, dataOffset));
+		if (decoded != null) {
+			for (Chunk chunk : decoded) {
+				chunk.writeTo(dest);
+			}
+			return;
+		}
+		
+		ByteBuffer table = fsb5.getTable();
+		int position = offsetInTable + 8;
+		boolean endOfChunk = !SampleMode.hasChunk(rawSampleMode);
+		while (!endOfChunk) {
+			int chunkMode = table.getInt(position);
+			int size = ChunkMode.getSize(chunkMode);
+			endOfChunk = ChunkMode.isLast(chunkMode);
+			position += 4;
+			
+			dest.putInt(chunkMode);
+			if (ChunkMode.getType(chunkMode) == 0x3) {
+				// like LoopInfoChunk, which reads the loop end with + 1
+				checkLoopInfoSize(size);
+				dest.putInt(table.getInt(position));
+				dest.putInt(table.getInt(position + 4) + 1);
+			} else {
+				dest.put(table.array(), position, size);
+			}
+			position += size;
+		}
+	}
+	
+	// The size of what writeTableEntryTo writes
+	synchronized int getTableEntrySize() {
+		if (chunks == null) {
+			return sizeInTable;
+		}
+		return Fsb5Builder.getTableEntrySize(this);
 	}
 	
 	// Calculate the data size of this audio by using the data offset of the next audio resource
-	void init() throws IOException {
-		LERandomAccessFile raf = fsb5.getRaf();
+	void init(long dataPartSize) {
 		if (index >= fsb5.getSoundCount() - 1) {
-			dataSize = raf.length() - fsb5.getDataPartOffset() - getDataOffset();
+			dataSize = dataPartSize - getDataOffset();
 		} else {
 			dataSize = fsb5.getSound(index + 1).getDataOffset() - getDataOffset();
 		}
 	}
 	
+	int getOffsetInTable() {
+		return offsetInTable;
+	}
+	
 	// Used to calculate the offset of the next table item
-	long getSizeInTable() {
+	int getSizeInTable() {
 		return sizeInTable;
 	}
 	
@@ -101,9 +184,39 @@ public class SoundFromFsb implements Sound {
 	
 	@Override
 	public void writeDataTo(LERandomAccessFile dest) throws IOException {
-		LERandomAccessFile raf = fsb5.getRaf();
-		long actualDataOffset = fsb5.getDataPartOffset() + getDataOffset();
-		raf.transferTo(dest, actualDataOffset, getDataSize());
+		LERandomAccessFile raf = fsb5.acquireRaf();
+		try {
+			long actualDataOffset = fsb5.getDataPartOffset() + getDataOffset();
+			raf.transferTo(dest, actualDataOffset, getDataSize());
+		} finally {
+			fsb5.releaseRaf();
+		}
+	}
+	
+	@Override
+	public void writeDataTo(WritableByteChannel dest) throws IOException {
+		writeDataTo(dest, getDataSize());
+	}
+	
+	// Also writes the data of the following sounds of the same .fsb, up to length bytes in total
+	void writeDataTo(WritableByteChannel dest, long length) throws IOException {
+		LERandomAccessFile raf = fsb5.acquireRaf();
+		try {
+			long actualDataOffset = fsb5.getDataPartOffset() + getDataOffset();
+			raf.transferTo(dest, actualDataOffset, length);
+		} finally {
+			fsb5.releaseRaf();
+		}
+	}
+	
+	// Whether the data of next directly follows the data of previous in the same .fsb
+	static boolean isDataContiguous(Sound previous, Sound next) {
+		if (!(previous instanceof SoundFromFsb) || !(next instanceof SoundFromFsb)) {
+			return false;
+		}
+		SoundFromFsb p = (SoundFromFsb) previous;
+		SoundFromFsb n = (SoundFromFsb) next;
+		return p.fsb5 == n.fsb5 && p.index + 1 == n.index;
 	}
 
 	@Override
@@ -112,7 +225,10 @@ public class SoundFromFsb implements Sound {
 	}
 	
 	@Override
-	public List<Chunk> getAllChunks() {
+	public synchronized List<Chunk> getAllChunks() {
+		if (chunks == null) {
+			chunks = readChunks();
+		}
 		return chunks;
 	}
 	
@@ -1,19 +1,33 @@
 package zzx.fsb5;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 import zzx.utils.LERandomAccessFile;
 
 public class UnknownChunk extends Chunk {
-	private final byte[] data;
+	// The payload is a view of buffer[offset, offset + length), usually the sample table of the .fsb it was read from
+	private final byte[] buffer;
+	private final int offset;
+	private final int length;
 
 	public UnknownChunk(ChunkMode mode, byte[] data) {
+		this(mode, data, 0, data.length);
+	}
+	
+	UnknownChunk(ChunkMode mode, byte[] buffer, int offset, int length) {
 		super(mode);
-		this.data = data;
+		this.buffer = buffer;
+		this.offset = offset;
+		this.length = length;
 	}
 	
 	public byte[] getData() {
-		return data;
+		if (offset == 0 && buffer.length == length) {
+			return buffer;
+		}
+		return Arrays.copyOfRange(buffer, offset, offset + length);
 	}
 
 	public int getSize() {
@@ -23,12 +37,19 @@ public class UnknownChunk extends Chunk {
 	@Override
 	public void writeTo(LERandomAccessFile dest) throws IOException {
 	    dest.writeInt(getMode().get());
-	    dest.write(data);
+	    dest.write(buffer, offset, length);
+	}
+	
+	@Override
+	public void writeTo(ByteBuffer dest) {
+		dest.putInt(getMode().get());
+		dest.put(buffer, offset, length);
 	}
 	
 	@Override
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
+		byte[] data = getData();
 		sb.append("Unknown(0x").append(Integer.toHexString(getMode().getType()))
 		  .append(", " + getSize() + " bytes")
 		  .append("): [");
@@ -2,10 +2,18 @@ package zzx.utils;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.AbstractMap;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -13,7 +21,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.Stack;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiFunction;
 import java.util.function.Function;
 
 /**
@@ -63,12 +72,23 @@ public class FileTree<V> implements Map<String, V> {
     
     /**
      * Represents a directory node containing child nodes.
+     * <p>
+     * A chain of directories which only contain one directory each (e.g. "data/data/sound")
+     * is stored as a single node: {@code names} holds the names along the chain, and
+     * {@code children} are the children of the last one. {@code name} is {@code names[0]}.
+     * The root is never part of a chain.
      */
     private class Dir extends Node {
+        public String[] names;
         public Map<String, Node> children = new HashMap<>();
         
         public Dir(String name) {
-            super(name, true);
+            this(new String[] {name});
+        }
+        
+        public Dir(String[] names) {
+            super(names[0], true);
+            this.names = names;
         }
     }
     
@@ -96,8 +116,136 @@ public class FileTree<V> implements Map<String, V> {
         }
     }
     
+    /**
+     * Walks over the components of a path in place: {@code start} and {@code end} delimit the
+     * current component inside {@code path}. Both '/' and '\' are separators, and empty
+     * components are skipped.
+     */
+    private static final class PathCursor {
+        final String path;
+        int start;
+        int end;
+        
+        PathCursor(String path) {
+            this.path = path;
+            this.end = 0;
+        }
+        
+        /**
+         * Moves to the next component.
+         * 
+         * @return false if there is none
+         */
+        boolean next() {
+            int i = end;
+            int length = path.length();
+            while (i < length && isSeparator(path.charAt(i))) {
+                i++;
+            }
+            if (i >= length) {
+                start = end = length;
+                return false;
+            }
+            start = i;
+            while (i < length && !isSeparator(path.charAt(i))) {
+                i++;
+            }
+            end = i;
+            return true;
+        }
+        
+        /**
+         * @return whether there is another component after the current one
+         */
+        boolean hasNext() {
+            for (int i = end; i < path.length(); i++) {
+                if (!isSeparator(path.charAt(i))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        
+        private static boolean isSeparator(char c) {
+            return c == '/' || c == '\\';
+        }
+    }
+    
+    /**
+     * The canonical instance of every name in the tree, so that a component of a path can be
+     * looked up without creating a string for it, and names are compared by identity.
+     */
+    private static final class NameTable {
+        private String[] slots = new String[64];
+        private int count = 0;
+        
+        /**
+         * @return the canonical instance of path[start, end), or null if no such name is in the table
+         */
+        String lookup(String path, int start, int end) {
+            int length = end - start;
+            int mask = slots.length - 1;
+            for (int i = spread(hash(path, start, end)) & mask; ; i = (i + 1) & mask) {
+                String name = slots[i];
+                if (name == null) {
+                    return null;
+                }
+                if (name.length() == length && path.regionMatches(start, name, 0, length)) {
+                    return name;
+                }
+            }
+        }
+        
+        /**
+         * @return the canonical instance of path[start, end), added if needed
+         */
+        String intern(String path, int start, int end) {
+            String name = lookup(path, start, end);
+            if (name != null) {
+                return name;
+            }
+            
+            name = (start == 0 && end == path.length()) ? path : path.substring(start, end);
+            if (2 * (count + 1) > slots.length) {
+                String[] old = slots;
+                slots = new String[old.length * 2];
+                for (String s : old) {
+                    if (s != null) {
+                        insert(s);
+                    }
+                }
+            }
+            insert(name);
+            count++;
+            return name;
+        }
+        
+        private void insert(String name) {
+            int mask = slots.length - 1;
+            int i = spread(name.hashCode()) & mask;
+            while (slots[i] != null) {
+                i = (i + 1) & mask;
+            }
+            slots[i] = name;
+        }
+        
+        // Same as String.hashCode() of the substring
+        private static int hash(String path, int start, int end) {
+            int h = 0;
+            for (int i = start; i < end; i++) {
+                h = 31 * h + path.charAt(i);
+            }
+            return h;
+        }
+        
+        private static int spread(int h) {
+            return h ^ (h >>> 16);
+        }
+    }
+    
     private Dir root;
     private int size = 0;
+    private final NameTable names = new NameTable();
     
     /**
      * Creates an empty file tree with the specified root name.
@@ -117,14 +265,30 @@ public class FileTree<V> implements Map<String, V> {
      * @throws IllegalArgumentException if rootDir is not a directory
      */
     public FileTree(File rootDir, Function<File, V> fileConverter) throws IOException {
+        this(rootDir, (file, attributes) -> fileConverter.apply(file));
+    }
+    
+    /**
+     * Creates a file tree by scanning a directory structure, giving the converter the
+     * attributes read by the scan (so that e.g. the size of a file doesn't need another stat).
+     * 
+     * @param rootDir the root directory to scan
+     * @param fileConverter function to convert files and their attributes to values
+     * @throws IOException if an I/O error occurs
+     * @throws IllegalArgumentException if rootDir is not a directory
+     */
+    public FileTree(File rootDir, BiFunction<File, BasicFileAttributes, V> fileConverter) throws IOException {
         this(rootDir.getName());
         scanDirectory(rootDir, fileConverter);
     }
     
     /**
-     * Recursively scans a directory and populates the tree.
+     * Scans a directory and populates the tree.
+     * <p>
+     * The subdirectories are listed concurrently (see {@link ScanTask}), then the files
+     * found are put into the tree by the calling thread.
      */
-    private void scanDirectory(File rootDir, Function<File, V> fileConverter) throws IOException {
+    private void scanDirectory(File rootDir, BiFunction<File, BasicFileAttributes, V> fileConverter) throws IOException {
         if (!rootDir.exists()) {
             return;
         }
@@ -133,26 +297,105 @@ public class FileTree<V> implements Map<String, V> {
             throw new IllegalArgumentException("Path is not a directory: " + rootDir.getAbsolutePath());
         }
 
-        scanDirectoryRecursive(rootDir, "", fileConverter);
+        List<ScannedEntry<V>> entries = new ArrayList<>();
+        new ScanTask<>(rootDir.toPath(), "", fileConverter).invoke().collectTo(entries);
+        for (ScannedEntry<V> entry : entries) {
+            put(entry.path, entry.value);
+        }
     }
     
     /**
-     * Recursive helper for directory scanning.
+     * A file found by a scan, with its path relative to the root of the scan.
      */
-    private void scanDirectoryRecursive(File currentDir, String currentPath, Function<File, V> fileConverter) {
-        File[] files = currentDir.listFiles();
-        if (files == null) return;
-
-        for (File file : files) {
-            String relativePath = currentPath.isEmpty() ? 
-                file.getName() : 
-                currentPath + "/" + file.getName();
+    private static final class ScannedEntry<V> {
+        final String path;
+        final V value;
+        
+        ScannedEntry(String path, V value) {
+            this.path = path;
+            this.value = value;
+        }
+    }
+    
+    /**
+     * The scan of one directory: its files are converted (with the attributes read while
+     * listing it, so each entry costs a single stat) and each subdirectory is scanned
+     * by a task of its own, on the fork-join pool.
+     * <p>
+     * Unreadable directories are skipped, like {@link File#listFiles()} does. Symbolic links
+     * are followed, but a directory already on the path being walked is not entered again.
+     */
+    private static final class ScanTask<V> extends RecursiveTask<ScanTask<V>> {
+        private static final long serialVersionUID = 1L;
+        
+        // (transient: a task is never serialized, RecursiveTask just happens to be Serializable)
+        private final transient Path dir;
+        private final String path;    // relative path of the directory, with a trailing '/' (except the root)
+        private final transient BiFunction<File, BasicFileAttributes, V> fileConverter;
+        private final transient ScanTask<V> parent;
+        private final transient Object key;
+        
+        private final transient List<ScannedEntry<V>> files = new ArrayList<>();
+        private final transient List<ScanTask<V>> subDirs = new ArrayList<>();
+        
+        ScanTask(Path dir, String path, BiFunction<File, BasicFileAttributes, V> fileConverter) {
+            this(dir, path, fileConverter, null, null);
+        }
+        
+        private ScanTask(Path dir, String path, BiFunction<File, BasicFileAttributes, V> fileConverter,
+                ScanTask<V> parent, Object key) {
+            this.dir = dir;
+            this.path = path;
+            this.fileConverter = fileConverter;
+            this.parent = parent;
+            this.key = key;
+        }
+        
+        @Override
+        protected ScanTask<V> compute() {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                for (Path child : stream) {
+                    BasicFileAttributes attributes;
+                    try {
+                        attributes = Files.readAttributes(child, BasicFileAttributes.class);
+                    } catch (IOException e) {
+                        continue;    // e.g. a broken link
+                    }
+                    
+                    String childPath = path + child.getFileName();
+                    if (attributes.isRegularFile()) {
+                        files.add(new ScannedEntry<>(childPath, fileConverter.apply(child.toFile(), attributes)));
+                    } else if (attributes.isDirectory() && !isAncestor(attributes.fileKey())) {
+                        subDirs.add(new ScanTask<>(child, childPath + "/", fileConverter, this, attributes.fileKey()));
+                    }
+                }
+            } catch (IOException | DirectoryIteratorException e) {
+                return this;
+            }
             
-            if (file.isFile()) {
-                V value = fileConverter.apply(file);
-                put(relativePath, value);
-            } else if (file.isDirectory()) {
-                scanDirectoryRecursive(file, relativePath, fileConverter);
+            invokeAll(subDirs);
+            return this;
+        }
+        
+        private boolean isAncestor(Object fileKey) {
+            if (fileKey == null) {
+                return false;
+            }
+            for (ScanTask<V> task = this; task != null; task = task.parent) {
+                if (fileKey.equals(task.key)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        
+        /**
+         * Adds the files found in this directory and its subdirectories, depth first.
+         */
+        void collectTo(List<ScannedEntry<V>> entries) {
+            entries.addAll(files);
+            for (ScanTask<V> subDir : subDirs) {
+                subDir.collectTo(entries);
             }
         }
     }
@@ -198,27 +441,24 @@ public class FileTree<V> implements Map<String, V> {
      * @throws IllegalArgumentException for invalid paths
      */
     public V get(String key) {
+        PathCursor cursor = cursor(key);
         Dir dir = root;
-        List<String> dirNames = split(key);
-        
-        if (dirNames.isEmpty()) {
-            throw new IllegalArgumentException("Invalid path after splitting: " + key);
-        }
-        
-        // Separate last component as filename
-        String fileName = dirNames.remove(dirNames.size() - 1);
         
         // Traverse directories
-        for (String dirName : dirNames) {
-            Node node = dir.children.get(dirName);
+        while (cursor.hasNext()) {
+            Node node = child(dir, cursor);
             if (node == null || !node.isDir) {
                 return null;
             }
             dir = node.asDir();
+            if (!matchChain(dir, cursor)) {
+                return null;
+            }
+            cursor.next();
         }
         
         // Get file node
-        Node node = dir.children.get(fileName);
+        Node node = child(dir, cursor);
         if (node == null || node.isDir) {
             return null;
         }
@@ -232,30 +472,48 @@ public class FileTree<V> implements Map<String, V> {
             return remove(key);
         }
         
+        PathCursor cursor = cursor(key);
         Dir dir = root;
-        List<String> dirNames = split(key);
-        
-        if (dirNames.isEmpty()) {
-            throw new IllegalArgumentException("Invalid path after splitting: " + key);
-        }
-        
-        // Separate last component as filename
-        String fileName = dirNames.remove(dirNames.size() - 1);
         
         // Create missing directories
-        for (String dirName : dirNames) {
+        while (cursor.hasNext()) {
+            String dirName = names.intern(key, cursor.start, cursor.end);
             Node node = dir.children.get(dirName);
             
             if (node == null) {
-                node = new Dir(dirName);
-                dir.children.put(dirName, node);
+                // All the remaining directories are new: one node for all of them
+                List<String> chain = new ArrayList<>();
+                chain.add(dirName);
+                cursor.next();
+                while (cursor.hasNext()) {
+                    chain.add(names.intern(key, cursor.start, cursor.end));
+                    cursor.next();
+                }
+                Dir newDir = new Dir(chain.toArray(new String[0]));
+                dir.children.put(dirName, newDir);
+                dir = newDir;
+                break;
             } else if (!node.isDir) {
                 throw new IllegalStateException("Path component conflicts with existing file: " + dirName);
             }
-            dir = node.asDir();
+            
+            // Follow the chain of the node as far as the path goes along it
+            Dir next = node.asDir();
+            int matched = 1;
+            cursor.next();
+            while (matched < next.names.length && cursor.hasNext()
+                    && next.names[matched] == names.lookup(key, cursor.start, cursor.end)) {
+                matched++;
+                cursor.next();
+            }
+            if (matched < next.names.length) {
+                splitChain(next, matched);
+            }
+            dir = next;
         }
         
         // Create or update file node
+        String fileName = names.intern(key, cursor.start, cursor.end);
         Node node = dir.children.get(fileName);
         if (node != null) {
             if (node.isDir) {
@@ -272,33 +530,117 @@ public class FileTree<V> implements Map<String, V> {
     }
     
     /**
-     * Gets all file entries in a directory.
+     * Cuts the chain of a directory node after its first {@code length} names:
+     * the node keeps those, and a new node with the rest of the chain takes its children.
+     */
+    private void splitChain(Dir dir, int length) {
+        Dir rest = new Dir(Arrays.copyOfRange(dir.names, length, dir.names.length));
+        rest.children = dir.children;
+        dir.names = Arrays.copyOf(dir.names, length);
+        dir.children = new HashMap<>();
+        dir.children.put(rest.name, rest);
+    }
+    
+    /**
+     * Merges a directory node with its only child if that child is a directory too.
+     */
+    private void mergeChain(Dir dir) {
+        if (dir == root || dir.children.size() != 1) {
+            return;
+        }
+        Node only = dir.children.values().iterator().next();
+        if (only.isDir) {
+            Dir child = only.asDir();
+            String[] merged = Arrays.copyOf(dir.names, dir.names.length + child.names.length);
+            System.arraycopy(child.names, 0, merged, dir.names.length, child.names.length);
+            dir.names = merged;
+            dir.children = child.children;
+        }
+    }
+    
+    /**
+     * Checks the path against the rest of the chain of a directory node. The cursor is at the
+     * component matching {@code dir.name} and is left at the one matching its last name.
      * 
-     * @param targetDir the directory path
-     * @return set of file entries in the directory
+     * @return false if the path leaves the chain (or ends) before its last name
      */
-    public Set<Entry<String, V>> getAllFile(String targetDir) {
-        Dir dir = root;
-        List<String> dirNames;
+    private boolean matchChain(Dir dir, PathCursor cursor) {
+        for (int i = 1; i < dir.names.length; i++) {
+            cursor.next();
+            if (!cursor.hasNext() || dir.names[i] != names.lookup(cursor.path, cursor.start, cursor.end)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * @return the child of the directory named like the current component, or null
+     */
+    private Node child(Dir dir, PathCursor cursor) {
+        String name = names.lookup(cursor.path, cursor.start, cursor.end);
+        return name == null ? null : dir.children.get(name);
+    }
+    
+    /**
+     * The position of a directory, which may be in the middle of the chain of a node.
+     */
+    private final class DirPosition {
+        final Dir dir;
+        final int index;    // in the names of the node
         
+        DirPosition(Dir dir, int index) {
+            this.dir = dir;
+            this.index = index;
+        }
+    }
+    
+    /**
+     * @return the position of a directory, or null if there is no such directory
+     */
+    private DirPosition findDir(String targetDir) {
         if (targetDir.isEmpty()) {
-            dirNames = List.of();
-        } else {
-            dirNames = split(targetDir);
+            return new DirPosition(root, 0);
         }
         
-        // Navigate to target directory
-        for (String dirName : dirNames) {
-            Node node = dir.children.get(dirName);
-            if (node == null || !node.isDir) {
-                return Set.of();
+        PathCursor cursor = cursor(targetDir);
+        Dir dir = root;
+        int index = 0;
+        do {
+            if (index < dir.names.length - 1) {
+                // inside a chain
+                index++;
+                if (dir.names[index] != names.lookup(targetDir, cursor.start, cursor.end)) {
+                    return null;
+                }
+            } else {
+                Node node = child(dir, cursor);
+                if (node == null || !node.isDir) {
+                    return null;
+                }
+                dir = node.asDir();
+                index = 0;
             }
-            dir = node.asDir();
+        } while (cursor.next());
+        return new DirPosition(dir, index);
+    }
+    
+    /**
+     * Gets all file entries in a directory.
+     * 
+     * @param targetDir the directory path
+     * @return set of file entries in the directory
+     */
+    public Set<Entry<String, V>> getAllFile(String targetDir) {
+        // Navigate to target directory
+        DirPosition position = findDir(targetDir);
+        if (position == null || position.index < position.dir.names.length - 1) {
+            return Set.of();    // (a directory inside a chain only contains the next one)
         }
         
         // Collect file entries
         Set<Entry<String, V>> result = new HashSet<>();
-        for (Node node : dir.children.values()) {
+        for (Node node : position.dir.children.values()) {
             if (!node.isDir) {
                 result.add(new AbstractMap.SimpleEntry<>(node.name, node.asFile().value));
             }
@@ -307,26 +649,20 @@ public class FileTree<V> implements Map<String, V> {
     }
     
     public Set<String> getAllSubDir(String targetDir) {
-        Dir dir = root;
-        List<String> dirNames;
-        
-        if (targetDir.isEmpty()) {
-            dirNames = List.of();
-        } else {
-            dirNames = split(targetDir);
+        // Navigate to target directory
+        DirPosition position = findDir(targetDir);
+        if (position == null) {
+            return Set.of();
         }
         
-        // Navigate to target directory
-        for (String dirName : dirNames) {
-            Node node = dir.children.get(dirName);
-            if (node == null || !node.isDir) {
-                return Set.of();
-            }
-            dir = node.asDir();
+        Set<String> result = new HashSet<>();
+        Dir dir = position.dir;
+        if (position.index < dir.names.length - 1) {
+            result.add(dir.names[position.index + 1]);
+            return result;
         }
         
         // Collect file entries
-        Set<String> result = new HashSet<>();
         for (Node node : dir.children.values()) {
             if (node.isDir) {
                 result.add(node.name);
@@ -350,40 +686,41 @@ public class FileTree<V> implements Map<String, V> {
      * @return the removed value, or null if not found
      */
     public V remove(String key) {
-        List<String> names = split(key);
-        if (names.isEmpty()) {
-            throw new IllegalArgumentException("Invalid path after splitting: " + key);
-        }
-        return remove(root, names.iterator());
+        return remove(root, cursor(key));
     }
     
     /**
-     * Recursive removal helper.
+     * Recursive removal helper. The cursor is at the component to look up in the directory.
      */
-    private V remove(Dir dir, Iterator<String> names) {
-        String name = names.next();
-        Node next = dir.children.get(name);
+    private V remove(Dir dir, PathCursor cursor) {
+        Node next = child(dir, cursor);
         
         if (next == null) {
             return null;
         }
         
-        if (!names.hasNext()) {  // Final component
+        if (!cursor.hasNext()) {  // Final component
             if (next.isDir) {
                 return null;  // Can't remove directory
             } else {
-                dir.children.remove(name);
+                dir.children.remove(next.name);
                 size--;
+                mergeChain(dir);
                 return next.asFile().value;
             }
         }
         
         if (next.isDir) {
             Dir nextDir = next.asDir();
-            V v = remove(nextDir, names);
+            if (!matchChain(nextDir, cursor)) {
+                return null;
+            }
+            cursor.next();
+            V v = remove(nextDir, cursor);
             // Remove empty directories
             if (nextDir.children.isEmpty()) {
-                dir.children.remove(name);
+                dir.children.remove(next.name);
+                mergeChain(dir);
             }
             return v;
         } else {
@@ -392,14 +729,14 @@ public class FileTree<V> implements Map<String, V> {
     }
     
     /**
-     * Splits a path into components.
+     * Checks a path and returns a cursor at its first component.
      * 
-     * @param key the path to split
-     * @return list of path components
+     * @param key the path to walk
+     * @return a cursor over the components of the path
      * @throws NullPointerException for null input
      * @throws IllegalArgumentException for empty or absolute paths
      */
-    private List<String> split(String key) {
+    private static PathCursor cursor(String key) {
         if (key == null) {
             throw new NullPointerException("Key cannot be null");
         }
@@ -410,15 +747,11 @@ public class FileTree<V> implements Map<String, V> {
             throw new IllegalArgumentException("Absolute paths are not allowed: " + key);
         }
         
-        // Split using both Unix and Windows separators
-        String[] parts = key.split("[\\\\/]");
-        List<String> result = new ArrayList<>();
-        for (String part : parts) {
-            if (!part.isEmpty()) {  // Skip empty components
-                result.add(part);
-            }
+        PathCursor cursor = new PathCursor(key);
+        if (!cursor.next()) {
+            throw new IllegalArgumentException("Invalid path after splitting: " + key);
         }
-        return result;
+        return cursor;
     }
 
     @Override
@@ -446,9 +779,7 @@ public class FileTree<V> implements Map<String, V> {
      */
     private void collectKeys(Dir dir, String currentPath, Set<String> keys) {
         for (Node child : dir.children.values()) {
-            String childPath = currentPath.isEmpty() ? 
-                child.name : 
-                currentPath + "/" + child.name;
+            String childPath = childPath(currentPath, child);
             
             if (child.isDir) {
                 collectKeys(child.asDir(), childPath, keys);
@@ -458,6 +789,21 @@ public class FileTree<V> implements Map<String, V> {
         }
     }
 
+    /**
+     * @return the path of a child node (of the last directory of its chain for a directory node)
+     */
+    private String childPath(String currentPath, Node child) {
+        String[] childNames = child.isDir ? child.asDir().names : new String[] {child.name};
+        StringBuilder sb = new StringBuilder(currentPath);
+        for (String name : childNames) {
+            if (sb.length() > 0) {
+                sb.append('/');
+            }
+            sb.append(name);
+        }
+        return sb.toString();
+    }
+
     @Override
     public Collection<V> values() {
         List<V> values = new ArrayList<>();
@@ -490,9 +836,7 @@ public class FileTree<V> implements Map<String, V> {
      */
     private void collectEntries(Dir dir, String currentPath, Set<Entry<String, V>> set) {
         for (Node child : dir.children.values()) {
-            String childPath = currentPath.isEmpty() ? 
-                child.name : 
-                currentPath + "/" + child.name;
+            String childPath = childPath(currentPath, child);
             
             if (child.isDir) {
                 collectEntries(child.asDir(), childPath, set);
@@ -513,7 +857,7 @@ public class FileTree<V> implements Map<String, V> {
         
         int i = 0;
         for (Node child : children) {
-            toString(sb, "", ++i == children.size(), child);
+            toString(sb, "", ++i == children.size(), child, 0);
         }
         return sb.toString();
     }
@@ -532,12 +876,13 @@ public class FileTree<V> implements Map<String, V> {
     
     /**
      * Recursive helper for tree visualization.
+     * {@code index} is the position in the chain of a directory node.
      */
-    private void toString(StringBuilder sb, String prefix, boolean isLast, Node node) {
+    private void toString(StringBuilder sb, String prefix, boolean isLast, Node node, int index) {
         // Draw current node
         sb.append(prefix)
             .append(isLast ? LAST_BRANCH : BRANCH)
-            .append(node.name)
+            .append(node.isDir ? node.asDir().names[index] : node.name)
             .append(node.isDir ? "/" : "")
             .append('\n');
         
@@ -545,125 +890,224 @@ public class FileTree<V> implements Map<String, V> {
         String childPrefix = prefix + (isLast ? "    " : VERTICAL);
         
         if (node.isDir) {
+            Dir dir = node.asDir();
+            if (index < dir.names.length - 1) {
+                // The only child is the next directory of the chain
+                toString(sb, childPrefix, true, dir, index + 1);
+                return;
+            }
+            
             // Sort child nodes
-            List<Node> children = new ArrayList<>(node.asDir().children.values());
+            List<Node> children = new ArrayList<>(dir.children.values());
             children.sort(Comparator.comparing(n -> n.isDir));
             
             int i = 0;
             for (Node child : children) {
-                toString(sb, childPrefix, ++i == children.size(), child);
+                toString(sb, childPrefix, ++i == children.size(), child, 0);
             }
         }
     }
 
+    /**
+     * Returns an iterator over the files in the same order as {@link #printingIterator()}
+     * (depth first, children sorted by name), with the same keys, but without printing anything.
+     * 
+     * @return iterator over the file entries, sorted by path
+     */
+    public Iterator<Entry<String, V>> sortedIterator() {
+        return new SortedIterator();
+    }
+    
+    /**
+     * Writes the same tree view as {@link #printingIterator()} prints, in one pass.
+     * Each file line is followed by the annotation given for its entry (e.g. " -> replaced").
+     * 
+     * @param out where to write the tree view, ideally buffered
+     * @param annotation the text to append to the line of a file, or null for nothing
+     * @throws IOException if writing fails
+     */
+    public void renderTo(Appendable out, Function<? super Entry<String, V>, String> annotation) throws IOException {
+        out.append(root.name).append('/');
+        TreeWalker walker = new TreeWalker();
+        while (walker.hasNext()) {
+            out.append('\n').append(walker.nextPrefix).append(walker.nextName);
+            if (walker.nextNode.isDir) {
+                out.append('/');
+            } else if (annotation != null) {
+                String text = annotation.apply(walker.entry());
+                if (text != null) {
+                    out.append(text);
+                }
+            }
+            walker.advance();
+        }
+    }
+
     /**
      * Returns an iterator that visualizes the tree structure during traversal.
+     * <p>
+     * Every node is printed to {@code System.out} as it is reached. For large trees, prefer
+     * {@link #sortedIterator()} and {@link #renderTo(Appendable, Function)}.
      * 
      * @return iterator that prints the tree structure
      */
     public Iterator<Entry<String, V>> printingIterator() {
         return new TreePrintingIterator();
     }
-
+    
     /**
-     * Iterator that prints the tree structure during traversal.
+     * Walks the whole tree depth first, children sorted by name, and keeps the next node
+     * (file or directory) together with its path and the prefix drawing its branch.
      */
-    private class TreePrintingIterator implements Iterator<Entry<String, V>> {
-        private final Stack<IteratorFrame> stack = new Stack<>();
-        private Node nextFile = null;
-        private String nextPath = "";
-        private String nextPrefix = "";
+    private class TreeWalker {
+        private final Deque<WalkerFrame> stack = new ArrayDeque<>();
+        Node nextNode = null;
+        String nextName = "";
+        String nextPath = "";
+        String nextPrefix = "";
 
         /**
          * Tracks iteration state for a directory.
          */
-        private class IteratorFrame {
+        private class WalkerFrame {
             final Dir dir;
+            final int index;    // in the chain of the directory node
             final String path;
             final String prefix;
             final Iterator<Node> childIter;
-            boolean hasMoreChildren;
+            boolean chainPending;    // the next directory of the chain hasn't been visited yet
 
-            IteratorFrame(Dir dir, String path, String prefix) {
+            WalkerFrame(Dir dir, int index, String path, String prefix) {
                 this.dir = dir;
+                this.index = index;
                 this.path = path;
                 this.prefix = prefix;
-                List<Node> children = new ArrayList<>(dir.children.values());
-                children.sort(Comparator.comparing((Node n) -> n.name));
+                this.chainPending = index < dir.names.length - 1;
+                List<Node> children = new ArrayList<>();
+                if (!chainPending) {
+                    children.addAll(dir.children.values());
+                    children.sort(Comparator.comparing((Node n) -> n.name));
+                }
                 this.childIter = children.iterator();
-                this.hasMoreChildren = childIter.hasNext();
             }
         }
 
-        public TreePrintingIterator() {
-            System.out.print(root.name + "/");
+        TreeWalker() {
             if (!root.children.isEmpty()) {
-                stack.push(new IteratorFrame(root, root.name, ""));
-                advanceToNextFile();
+                stack.push(new WalkerFrame(root, 0, root.name, ""));
+                advance();
             }
         }
 
+        boolean hasNext() {
+            return nextNode != null;
+        }
+        
+        /**
+         * @return the entry of the next node, which must be a file
+         */
+        Entry<String, V> entry() {
+            return new AbstractMap.SimpleEntry<>(nextPath, nextNode.asFile().value);
+        }
+
         /**
-         * Advances to the next printable node (file or directory).
+         * Advances to the next node (file or directory).
          */
-        private void advanceToNextFile() {
+        void advance() {
             while (!stack.isEmpty()) {
-                IteratorFrame frame = stack.peek();
+                WalkerFrame frame = stack.peek();
                 
-                if (!frame.childIter.hasNext()) {
+                Node node;
+                int index;
+                if (frame.chainPending) {
+                    frame.chainPending = false;
+                    node = frame.dir;
+                    index = frame.index + 1;
+                } else if (frame.childIter.hasNext()) {
+                    node = frame.childIter.next();
+                    index = 0;
+                } else {
                     stack.pop();
                     continue;
                 }
-
-                Node node = frame.childIter.next();
-                frame.hasMoreChildren = frame.childIter.hasNext();
+                boolean hasMoreChildren = frame.childIter.hasNext();
                 
-                String childPath = frame.path + "/" + node.name;
-                String childPrefix = frame.prefix + (frame.hasMoreChildren ? VERTICAL : "    ");
-
+                nextNode = node;
+                nextName = node.isDir ? node.asDir().names[index] : node.name;
+                nextPath = frame.path + "/" + nextName;
+                nextPrefix = frame.prefix + (hasMoreChildren ? BRANCH : LAST_BRANCH);
                 if (node.isDir) {
-                    // Store directory for printing and push to stack
-                    nextFile = node;
-                    nextPath = childPath;
-                    nextPrefix = frame.prefix + (frame.hasMoreChildren ? BRANCH : LAST_BRANCH);
-                    stack.push(new IteratorFrame(node.asDir(), childPath, childPrefix));
-                    return;
-                } else {
-                    // Store file for return
-                    nextFile = node;
-                    nextPath = childPath;
-                    nextPrefix = frame.prefix + (frame.hasMoreChildren ? BRANCH : LAST_BRANCH);
-                    return;
+                    String childPrefix = frame.prefix + (hasMoreChildren ? VERTICAL : "    ");
+                    stack.push(new WalkerFrame(node.asDir(), index, nextPath, childPrefix));
                 }
+                return;
+            }
+            nextNode = null;  // End of iteration
+        }
+    }
+    
+    /**
+     * Iterator over the files of a {@link TreeWalker}.
+     */
+    private class SortedIterator implements Iterator<Entry<String, V>> {
+        private final TreeWalker walker = new TreeWalker();
+        
+        SortedIterator() {
+            skipDirs();
+        }
+        
+        private void skipDirs() {
+            while (walker.hasNext() && walker.nextNode.isDir) {
+                walker.advance();
             }
-            nextFile = null;  // End of iteration
         }
 
         @Override
         public boolean hasNext() {
-            return nextFile != null;
+            return walker.hasNext();
         }
 
         @Override
         public Entry<String, V> next() {
             if (!hasNext()) throw new NoSuchElementException();
             
-            // Print node visualization
-            System.out.print("\n" + nextPrefix + nextFile.name + 
-                           (nextFile.isDir ? "/" : ""));
-            
-            FileNode currentFile = nextFile.isDir ? null : nextFile.asFile();
-            String currentPath = nextPath;
-            
-            advanceToNextFile();  // Prepare next node
-            
-            if (currentFile != null) {
-                // Return file entry
-                return new AbstractMap.SimpleEntry<>(currentPath, currentFile.value);
-            } else {
-                // Skip directories and return next file
-                return next();
+            Entry<String, V> entry = walker.entry();
+            walker.advance();
+            skipDirs();
+            return entry;
+        }
+    }
+
+    /**
+     * Iterator that prints the tree structure during traversal.
+     */
+    private class TreePrintingIterator implements Iterator<Entry<String, V>> {
+        private final TreeWalker walker = new TreeWalker();
+
+        public TreePrintingIterator() {
+            System.out.print(root.name + "/");
+        }
+
+        @Override
+        public boolean hasNext() {
+            return walker.hasNext();
+        }
+
+        @Override
+        public Entry<String, V> next() {
+            // Print the directories leading to the next file, then the file
+            while (hasNext()) {
+                System.out.print("\n" + walker.nextPrefix + walker.nextName + 
+                               (walker.nextNode.isDir ? "/" : ""));
+                
+                if (!walker.nextNode.isDir) {
+                    Entry<String, V> entry = walker.entry();
+                    walker.advance();  // Prepare next node
+                    return entry;
+                }
+                walker.advance();  // Skip directories and return next file
             }
+            throw new NoSuchElementException();
         }
     }
-}
\ No newline at end of file
+}
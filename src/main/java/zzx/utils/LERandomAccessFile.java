@@ -6,7 +6,9 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * A {@link RandomAccessFile} variant specifically designed for little-endian file access.
@@ -131,6 +133,17 @@ public class LERandomAccessFile implements Closeable {
         return raf.getChannel();
     }
     
+    /**
+     * Returns a channel writing to this file at its file pointer. Writing through the channel
+     * advances the file pointer, and seeking the file moves the channel's position.
+     * 
+     * @return a channel sharing the position of this file
+     * @throws UnsupportedOperationException if this file can't be written through a channel (e.g. a slice)
+     */
+    public WritableByteChannel getWritableChannel() {
+        return getChannel();
+    }
+    
     /**
      * Closes the file stream and releases resources.
      * 
@@ -429,6 +442,30 @@ public class LERandomAccessFile implements Closeable {
         }
     }
     
+    //--------------------------------------------------
+    // Positional Read Method
+    //--------------------------------------------------
+    
+    /**
+     * Reads bytes at an absolute position into the buffer until it has no remaining space.
+     * Bytes are copied raw, with NO endian conversion.
+     * <p>
+     * Unlike the other read methods, this one neither uses nor modifies the file pointer,
+     * so it is safe to call from several threads sharing one instance.
+     * 
+     * @param dst      the buffer to fill (from its position up to its limit)
+     * @param position the absolute byte offset to start reading from
+     * @throws IOException if end of file is reached before filling the buffer
+     */
+    public void readFully(ByteBuffer dst, long position) throws IOException {
+        FileChannel channel = getChannel();
+        while (dst.hasRemaining()) {
+            int n = channel.read(dst, position);
+            if (n < 0) throw new IOException("Unexpected EOF");
+            position += n;
+        }
+    }
+    
     //--------------------------------------------------
     // Special Transfer Method
     //--------------------------------------------------
@@ -454,6 +491,20 @@ public class LERandomAccessFile implements Closeable {
      *                     or transfer fails
      */
     public void transferTo(LERandomAccessFile dest, long srcOffset, long len) throws IOException {
+        transferTo(dest.getChannel(), srcOffset, len);
+    }
+    
+    /**
+     * Transfers bytes from this file to any writable channel (another file, a pipe, a socket...),
+     * using zero-copy transfer where the platform supports it.
+     * Does not modify this file's pointer; the bytes are written at the channel's current position.
+     * 
+     * @param destChannel the channel to write to
+     * @param srcOffset   the starting offset in this file
+     * @param len         the number of bytes to transfer
+     * @throws IOException if source region is invalid or transfer fails
+     */
+    public void transferTo(WritableByteChannel destChannel, long srcOffset, long len) throws IOException {
         if (len == 0) return;
 
         // Validate source region
@@ -462,7 +513,6 @@ public class LERandomAccessFile implements Closeable {
         }
 
         FileChannel srcChannel = this.getChannel();
-        FileChannel destChannel = dest.getChannel();
         
         long transferred = 0;
         while (transferred < len) {
@@ -3,7 +3,9 @@ package zzx.utils;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * Represents a read-only slice of a file, providing a window into
@@ -181,6 +183,15 @@ public class LERandomAccessFileSlice extends LERandomAccessFile {
         slicePointer += b.length;
     }
 
+    @Override
+    public void readFully(ByteBuffer dst, long position) throws IOException {
+        checkOpen();
+        if (position < 0 || position + dst.remaining() > sliceLength) {
+            throw new IOException("Read operation exceeds slice bounds");
+        }
+        master.readFully(dst, sliceOffset + position);
+    }
+
     // ================= Little-Endian Read Methods =================
     @Override
     public short readShort() throws IOException {
@@ -354,7 +365,7 @@ public class LERandomAccessFileSlice extends LERandomAccessFile {
     }
     
     @Override
-    public void transferTo(LERandomAccessFile dest, long srcOffset, long len) throws IOException {
+    public void transferTo(WritableByteChannel destChannel, long srcOffset, long len) throws IOException {
         if (len == 0) return;
         
         if (srcOffset < 0) {
@@ -371,7 +382,6 @@ public class LERandomAccessFileSlice extends LERandomAccessFile {
         }
 
         FileChannel srcChannel = master.getChannel();
-        FileChannel destChannel = dest.getChannel();
         
         long transferred = 0;
         while (transferred < len) {
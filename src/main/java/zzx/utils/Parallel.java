@@ -0,0 +1,147 @@
+package zzx.utils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A small helper for running independent I/O tasks on a fixed thread pool.
+ * Checked exceptions thrown by a task are rethrown to the caller as they were,
+ * so callers can keep their usual {@code throws IOException} signatures.
+ */
+public class Parallel {
+
+    private Parallel() {}
+
+    /**
+     * @return the default number of worker threads
+     */
+    public static int defaultThreads() {
+        return Math.max(1, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Runs all tasks concurrently and waits for all of them.
+     *
+     * @param tasks the tasks to run
+     * @return the results, in the same order as the tasks
+     * @throws IOException if any task throws an IOException (the first one found in task order)
+     */
+    public static <T> List<T> invokeAll(List<? extends Callable<T>> tasks) throws IOException {
+        return invokeAll(tasks, defaultThreads());
+    }
+
+    /**
+     * Runs all tasks with at most {@code threads} of them running at the same time.
+     * A single task (or a single thread) runs directly on the calling thread.
+     *
+     * @param tasks   the tasks to run
+     * @param threads the maximum number of worker threads
+     * @return the results, in the same order as the tasks
+     * @throws IOException if any task throws an IOException (the first one found in task order)
+     */
+    public static <T> List<T> invokeAll(List<? extends Callable<T>> tasks, int threads) throws IOException {
+        List<T> results = new ArrayList<>(tasks.size());
+        if (tasks.size() <= 1 || threads <= 1) {
+            for (Callable<T> task : tasks) {
+                results.add(call(task));
+            }
+            return results;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, tasks.size()));
+        List<Future<T>> futures = new ArrayList<>(tasks.size());
+        try {
+            for (Callable<T> task : tasks) {
+                futures.add(pool.submit(task));
+            }
+            for (Future<T> future : futures) {
+                results.add(get(future));
+            }
+            return results;
+        } finally {
+            /*
+             * After a failure, the tasks not started yet are dropped, but the running ones are never
+             * interrupted: they may be reading or writing a FileChannel shared with the caller (e.g.
+             * the one of an archive), which an interrupt would close for good. They are waited for
+             * instead, so the caller can clean up once nothing uses its files anymore.
+             */
+            for (Future<T> future : futures) {
+                future.cancel(false);
+            }
+            pool.shutdown();
+            awaitTermination(pool);
+        }
+    }
+
+    private static void awaitTermination(ExecutorService pool) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (pool.awaitTermination(1, TimeUnit.MINUTES)) {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;    // still wait, the tasks may be using the caller's files
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Waits for a task submitted to an executor, rethrowing what it threw like
+     * {@link #invokeAll(List)} does.
+     *
+     * @param future the pending result of the task
+     * @return the result of the task
+     * @throws IOException if the task threw an IOException
+     */
+    public static <T> T await(Future<T> future) throws IOException {
+        return get(future);
+    }
+
+    private static <T> T call(Callable<T> task) throws IOException {
+        try {
+            return task.call();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static <T> T get(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a worker thread", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+}
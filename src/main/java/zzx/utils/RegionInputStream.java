@@ -0,0 +1,77 @@
+package zzx.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An {@link InputStream} over a fixed byte range of a {@link LERandomAccessFile}.
+ * <p>
+ * All reads are positional (see {@link LERandomAccessFile#readFully(ByteBuffer, long)}),
+ * so the file pointer of the underlying file is never used or modified, and several
+ * streams may read from the same file at the same time.
+ * Closing the stream does not close the underlying file.
+ */
+public class RegionInputStream extends InputStream {
+
+    private final LERandomAccessFile raf;
+    private final long end;
+    private long position;
+    private long mark;
+
+    /**
+     * @param raf    the file to read from
+     * @param offset starting byte offset of the region
+     * @param length length of the region
+     */
+    public RegionInputStream(LERandomAccessFile raf, long offset, long length) {
+        this.raf = raf;
+        this.position = offset;
+        this.end = offset + length;
+        this.mark = offset;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) < 0 ? -1 : (b[0] & 0xFF);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        if (position >= end) return -1;
+
+        int n = (int) Math.min(len, end - position);
+        raf.readFully(ByteBuffer.wrap(b, off, n), position);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = Math.max(0, Math.min(n, end - position));
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(Integer.MAX_VALUE, end - position);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+        mark = position;
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        position = mark;
+    }
+}
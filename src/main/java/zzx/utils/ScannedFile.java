@@ -0,0 +1,49 @@
+package zzx.utils;
+
+import java.io.File;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * A file found by a directory scan, which remembers the size and modification time
+ * the scan read for it.
+ * <p>
+ * {@link #length()} and {@link #lastModified()} return those values without asking the
+ * file system again, and {@link #hasChanged()} tells whether the file has been modified since.
+ */
+public class ScannedFile extends File {
+    private static final long serialVersionUID = 1L;
+
+    private final long length;
+    private final long lastModified;
+
+    public ScannedFile(File file, BasicFileAttributes attributes) {
+        super(file.getPath());
+        this.length = attributes.size();
+        this.lastModified = attributes.lastModifiedTime().toMillis();
+    }
+
+    /**
+     * @return the size of the file when it was scanned
+     */
+    @Override
+    public long length() {
+        return length;
+    }
+
+    /**
+     * @return the modification time of the file when it was scanned
+     */
+    @Override
+    public long lastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @return whether the size or modification time of the file on disk differs from
+     *         the scanned ones (or the file is gone)
+     */
+    public boolean hasChanged() {
+        File current = new File(getPath());
+        return !current.isFile() || current.length() != length || current.lastModified() != lastModified;
+    }
+}
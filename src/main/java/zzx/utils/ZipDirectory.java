@@ -0,0 +1,215 @@
+package zzx.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The list of files in a .zip archive, read from its central directory (zip64 included)
+ * without extracting anything. Each file is a {@link ZipEntryFile}, which reads its content
+ * straight from the archive.
+ * <p>
+ * Closing the directory deletes the temporary files made by
+ * {@link ZipEntryFile#openRaf()} for compressed entries.
+ */
+public class ZipDirectory implements Closeable {
+
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_EOCD_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_EOCD_SIGNATURE = 0x06064b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+
+    private static final int EOCD_SIZE = 22;
+    private static final int ZIP64_EOCD_LOCATOR_SIZE = 20;
+    private static final int ZIP64_EOCD_SIZE = 56;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final int FLAG_ENCRYPTED = 0x0001;
+
+    private final File zipFile;
+    private final List<ZipEntryFile> entries = new ArrayList<>();
+    private final List<File> tempFiles = new ArrayList<>();
+
+    /**
+     * Reads the central directory of a .zip file.
+     *
+     * @param zipFile the .zip file
+     * @throws IOException if the file can't be read or isn't a valid .zip file
+     */
+    public ZipDirectory(File zipFile) throws IOException {
+        this.zipFile = zipFile;
+        try (LERandomAccessFile raf = new LERandomAccessFile(zipFile, "r")) {
+            readCentralDirectory(raf);
+        }
+    }
+
+    /**
+     * @param file any file
+     * @return whether the file looks like a .zip file (by its extension)
+     */
+    public static boolean isZipFile(File file) {
+        return file.isFile() && file.getName().toLowerCase().endsWith(".zip");
+    }
+
+    public File getZipFile() {
+        return zipFile;
+    }
+
+    /**
+     * @return the files of the archive (directory entries excluded), in central directory order
+     */
+    public List<ZipEntryFile> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    private void readCentralDirectory(LERandomAccessFile raf) throws IOException {
+        long length = raf.length();
+
+        // 1. the end of central directory record, followed by a comment of up to 64 KiB
+        int tailSize = (int) Math.min(length, EOCD_SIZE + MAX_COMMENT_SIZE);
+        ByteBuffer tail = read(raf, length - tailSize, tailSize);
+        int eocd = -1;
+        for (int i = tailSize - EOCD_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == EOCD_SIGNATURE && i + EOCD_SIZE + (tail.getShort(i + 20) & 0xFFFF) <= tailSize) {
+                eocd = i;
+                break;
+            }
+        }
+        if (eocd < 0) {
+            throw new IOException("Not a .zip file (no end of central directory found): " + zipFile);
+        }
+
+        long entryCount = tail.getShort(eocd + 10) & 0xFFFF;
+        long directorySize = tail.getInt(eocd + 12) & 0xFFFFFFFFL;
+        long directoryOffset = tail.getInt(eocd + 16) & 0xFFFFFFFFL;
+
+        // 2. zip64: the real values are in the zip64 end of central directory record
+        long eocdPosition = length - tailSize + eocd;
+        if (eocdPosition >= ZIP64_EOCD_LOCATOR_SIZE) {
+            ByteBuffer locator = read(raf, eocdPosition - ZIP64_EOCD_LOCATOR_SIZE, ZIP64_EOCD_LOCATOR_SIZE);
+            if (locator.getInt(0) == ZIP64_EOCD_LOCATOR_SIGNATURE) {
+                ByteBuffer zip64 = read(raf, locator.getLong(8), ZIP64_EOCD_SIZE);
+                if (zip64.getInt(0) != ZIP64_EOCD_SIGNATURE) {
+                    throw new IOException("Broken zip64 end of central directory: " + zipFile);
+                }
+                entryCount = zip64.getLong(32);
+                directorySize = zip64.getLong(40);
+                directoryOffset = zip64.getLong(48);
+            }
+        }
+
+        if (directorySize > Integer.MAX_VALUE || directoryOffset + directorySize > length) {
+            throw new IOException("Broken central directory: " + zipFile);
+        }
+
+        // 3. the central directory itself, read in one go
+        ByteBuffer directory = read(raf, directoryOffset, (int) directorySize);
+        int position = 0;
+        for (long i = 0; i < entryCount; i++) {
+            if (position + CENTRAL_HEADER_SIZE > directory.limit() ||
+                directory.getInt(position) != CENTRAL_HEADER_SIGNATURE) {
+                throw new IOException("Broken central directory: " + zipFile);
+            }
+            int flags = directory.getShort(position + 8) & 0xFFFF;
+            int method = directory.getShort(position + 10) & 0xFFFF;
+            int dosTime = directory.getShort(position + 12) & 0xFFFF;
+            int dosDate = directory.getShort(position + 14) & 0xFFFF;
+            long compressedSize = directory.getInt(position + 20) & 0xFFFFFFFFL;
+            long size = directory.getInt(position + 24) & 0xFFFFFFFFL;
+            int nameLength = directory.getShort(position + 28) & 0xFFFF;
+            int extraLength = directory.getShort(position + 30) & 0xFFFF;
+            int commentLength = directory.getShort(position + 32) & 0xFFFF;
+            long localHeaderOffset = directory.getInt(position + 42) & 0xFFFFFFFFL;
+
+            int nameStart = position + CENTRAL_HEADER_SIZE;
+            String name = new String(directory.array(), nameStart, nameLength, StandardCharsets.UTF_8);
+
+            // zip64 extra field: the 64-bit values of the fields which are 0xFFFFFFFF, in this order
+            int extra = nameStart + nameLength;
+            int extraEnd = extra + extraLength;
+            while (extra + 4 <= extraEnd) {
+                int id = directory.getShort(extra) & 0xFFFF;
+                int dataSize = directory.getShort(extra + 2) & 0xFFFF;
+                if (id == ZIP64_EXTRA_ID) {
+                    int field = extra + 4;
+                    if (size == 0xFFFFFFFFL) {
+                        size = directory.getLong(field);
+                        field += 8;
+                    }
+                    if (compressedSize == 0xFFFFFFFFL) {
+                        compressedSize = directory.getLong(field);
+                        field += 8;
+                    }
+                    if (localHeaderOffset == 0xFFFFFFFFL) {
+                        localHeaderOffset = directory.getLong(field);
+                    }
+                }
+                extra += 4 + dataSize;
+            }
+            position = extraEnd + commentLength;
+
+            if (name.endsWith("/") || name.endsWith("\\")) {
+                continue;    // a directory
+            }
+            if ((flags & FLAG_ENCRYPTED) != 0) {
+                throw new IOException("Encrypted .zip files are not supported: " + zipFile + " (" + name + ")");
+            }
+            if (method != ZipEntryFile.STORED && method != ZipEntryFile.DEFLATED) {
+                throw new IOException("Unsupported compression method " + method + " in " + zipFile + " (" + name + "), " +
+                        "only stored and deflated files are supported");
+            }
+
+            entries.add(new ZipEntryFile(this, name, method, compressedSize, size, localHeaderOffset,
+                    dosToJavaTime(dosDate, dosTime)));
+        }
+    }
+
+    private static ByteBuffer read(LERandomAccessFile raf, long position, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        raf.readFully(buffer, position);
+        buffer.clear();
+        return buffer;
+    }
+
+    private static long dosToJavaTime(int date, int time) {
+        if (date == 0) {
+            return 0;
+        }
+        try {
+            LocalDateTime dateTime = LocalDateTime.of(
+                    1980 + (date >> 9), (date >> 5) & 0x0F, date & 0x1F,
+                    time >> 11, (time >> 5) & 0x3F, (time & 0x1F) * 2);
+            return dateTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (RuntimeException e) {
+            return 0;    // an invalid date
+        }
+    }
+
+    /**
+     * @return a new temporary file, deleted when this directory is closed (or at exit)
+     */
+    synchronized File createTempFile(String suffix) throws IOException {
+        File temp = File.createTempFile("BunyUtil-", suffix);
+        temp.deleteOnExit();
+        tempFiles.add(temp);
+        return temp;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (File temp : tempFiles) {
+            temp.delete();
+        }
+        tempFiles.clear();
+    }
+}
@@ -0,0 +1,222 @@
+package zzx.utils;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A file inside a .zip archive (see {@link ZipDirectory}).
+ * <p>
+ * Its path is the path of the archive followed by the name of the entry, and
+ * {@link #length()} and {@link #lastModified()} are those of the entry, so it can stand in for
+ * an extracted file. It can't be opened like one, though: use {@link #openStream(File)} and
+ * {@link #open(File)}, which accept both kinds of files.
+ * <p>
+ * A stored entry is read straight from the archive. A deflated entry is inflated on the fly
+ * when streamed, but random access to it needs a temporary copy, which is made once.
+ */
+public class ZipEntryFile extends File {
+    private static final long serialVersionUID = 1L;
+
+    static final int STORED = 0;
+    static final int DEFLATED = 8;
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int BUFFER_SIZE = 0x10000;
+
+    private final transient ZipDirectory zip;
+    private final String entryName;
+    private final int method;
+    private final long compressedSize;
+    private final long size;
+    private final long localHeaderOffset;
+    private final long lastModified;
+
+    private long dataOffset = -1;
+    private File inflated;    // the temporary copy of a deflated entry
+
+    ZipEntryFile(ZipDirectory zip, String entryName, int method,
+            long compressedSize, long size, long localHeaderOffset, long lastModified) {
+        super(zip.getZipFile(), entryName);
+        this.zip = zip;
+        this.entryName = entryName;
+        this.method = method;
+        this.compressedSize = compressedSize;
+        this.size = size;
+        this.localHeaderOffset = localHeaderOffset;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * Opens any file for reading, be it a plain file or a {@link ZipEntryFile}.
+     */
+    public static InputStream openStream(File file) throws IOException {
+        if (file instanceof ZipEntryFile) {
+            return ((ZipEntryFile) file).openStream();
+        }
+        return new FileInputStream(file);
+    }
+
+    /**
+     * Opens any file for random access reading, be it a plain file or a {@link ZipEntryFile}.
+     */
+    public static LERandomAccessFile open(File file) throws IOException {
+        if (file instanceof ZipEntryFile) {
+            return ((ZipEntryFile) file).openRaf();
+        }
+        return new LERandomAccessFile(file, "r");
+    }
+
+    /**
+     * @return the name of the entry in the archive, e.g. "data/data/ui/logo.png"
+     */
+    public String getEntryName() {
+        return entryName;
+    }
+
+    /**
+     * @return whether the entry is stored without compression, so that its content is a
+     *         plain range of the archive
+     */
+    public boolean isStored() {
+        return method == STORED;
+    }
+
+    /**
+     * @return the uncompressed size of the entry
+     */
+    @Override
+    public long length() {
+        return size;
+    }
+
+    @Override
+    public long lastModified() {
+        return lastModified;
+    }
+
+    @Override
+    public boolean exists() {
+        return true;
+    }
+
+    @Override
+    public boolean isFile() {
+        return true;
+    }
+
+    @Override
+    public boolean isDirectory() {
+        return false;
+    }
+
+    /**
+     * @return a stream over the uncompressed content of the entry
+     */
+    public InputStream openStream() throws IOException {
+        LERandomAccessFile raf = new LERandomAccessFile(zip.getZipFile(), "r");
+        try {
+            InputStream in = new RegionInputStream(raf, getDataOffset(raf), compressedSize) {
+                @Override
+                public void close() throws IOException {
+                    raf.close();
+                }
+            };
+            if (isStored()) {
+                return in;
+            }
+            return new EntryInflaterInputStream(new BufferedInputStream(in, BUFFER_SIZE));
+        } catch (IOException | RuntimeException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the uncompressed content of the entry, for random access: a slice of the archive for
+     *         a stored entry, a temporary copy for a deflated one
+     */
+    public LERandomAccessFile openRaf() throws IOException {
+        if (!isStored()) {
+            return new LERandomAccessFile(inflate(), "r");
+        }
+        LERandomAccessFile raf = new LERandomAccessFile(zip.getZipFile(), "r");
+        try {
+            return new LERandomAccessFileSlice(raf, getDataOffset(raf), size, true);
+        } catch (IOException | RuntimeException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    private synchronized File inflate() throws IOException {
+        if (inflated == null) {
+            File temp = zip.createTempFile("-" + getName());
+            try (InputStream in = openStream(); OutputStream out = new FileOutputStream(temp)) {
+                in.transferTo(out);
+            }
+            inflated = temp;
+        }
+        return inflated;
+    }
+
+    // The content starts after the local header, whose name and extra field may differ from the central ones
+    private synchronized long getDataOffset(LERandomAccessFile raf) throws IOException {
+        if (dataOffset < 0) {
+            ByteBuffer header = ByteBuffer.allocate(LOCAL_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            raf.readFully(header, localHeaderOffset);
+            if (header.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+                throw new IOException("Broken local header of " + entryName + " in " + zip.getZipFile());
+            }
+            int nameLength = header.getShort(26) & 0xFFFF;
+            int extraLength = header.getShort(28) & 0xFFFF;
+            dataOffset = localHeaderOffset + LOCAL_HEADER_SIZE + nameLength + extraLength;
+        }
+        return dataOffset;
+    }
+
+    /**
+     * Inflates raw deflate data, which needs one extra dummy byte once the input is exhausted
+     * (see {@link Inflater#Inflater(boolean)}), and releases the inflater when closed.
+     */
+    private static class EntryInflaterInputStream extends InflaterInputStream {
+        private boolean eof = false;
+
+        EntryInflaterInputStream(InputStream in) {
+            super(in, new Inflater(true), BUFFER_SIZE);
+        }
+
+        @Override
+        protected void fill() throws IOException {
+            if (eof) {
+                throw new EOFException("Unexpected end of deflated data");
+            }
+            len = in.read(buf, 0, buf.length);
+            if (len == -1) {
+                buf[0] = 0;
+                len = 1;
+                eof = true;
+            }
+            inf.setInput(buf, 0, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                inf.end();
+            }
+        }
+    }
+}
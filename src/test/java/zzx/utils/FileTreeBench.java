@@ -0,0 +1,219 @@
+package zzx.utils;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Times {@link FileTree#put}, {@link FileTree#get} and {@link FileTree#remove} on a tree of
+ * 18k mod-like paths (all under "data/data/..."), against {@link RegexSplitTree}, the former
+ * implementation which split every key with a regex and walked one HashMap per component.
+ * <p>
+ * Each line gives the time and the bytes allocated by the current thread for one round;
+ * the first rounds are warm-up. Run with:
+ * <pre>
+ * mvn -q test-compile
+ * java -cp target/classes:target/test-classes zzx.utils.FileTreeBench [rounds]
+ * </pre>
+ */
+public class FileTreeBench {
+
+    private static final int PATH_COUNT = 18000;
+    private static final int GET_PASSES = 10;
+
+    /**
+     * The operations timed, on either implementation.
+     */
+    private interface Tree {
+        void put(String path, Integer value);
+        Integer get(String path);
+        Integer remove(String path);
+    }
+
+    private static long sink;
+
+    public static void main(String[] args) {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        List<String> paths = generatePaths(PATH_COUNT, 7);
+
+        System.out.println(paths.size() + " paths, " + GET_PASSES + " gets per path");
+        for (int round = 0; round < rounds; round++) {
+            run("regex split", paths, () -> new Tree() {
+                final RegexSplitTree<Integer> tree = new RegexSplitTree<>();
+                public void put(String path, Integer value) { tree.put(path, value); }
+                public Integer get(String path) { return tree.get(path); }
+                public Integer remove(String path) { return tree.remove(path); }
+            });
+            run("FileTree   ", paths, () -> new Tree() {
+                final FileTree<Integer> tree = new FileTree<>("data");
+                public void put(String path, Integer value) { tree.put(path, value); }
+                public Integer get(String path) { return tree.get(path); }
+                public Integer remove(String path) { return tree.remove(path); }
+            });
+        }
+        if (sink == 42) {
+            System.out.println();    // keeps the lookups from being optimized away
+        }
+    }
+
+    // Distinct random paths shaped like the files of a mod: a common prefix, then 2 to 5 directories
+    private static List<String> generatePaths(int count, long seed) {
+        Random random = new Random(seed);
+        String[] names = {"data", "sound", "pc", "texture", "model", "level", "fx", "ui"};
+        List<String> paths = new ArrayList<>(count);
+        Set<String> seen = new HashSet<>();
+        while (paths.size() < count) {
+            StringBuilder sb = new StringBuilder("data/data");
+            int depth = 2 + random.nextInt(4);
+            for (int d = 0; d < depth; d++) {
+                sb.append('/').append(names[random.nextInt(names.length)]).append(random.nextInt(d < 2 ? 2 : 30));
+            }
+            sb.append("/f").append(random.nextInt(1000)).append(".bin");
+            if (seen.add(sb.toString())) {
+                paths.add(sb.toString());
+            }
+        }
+        return paths;
+    }
+
+    private static void run(String name, List<String> paths, Supplier<Tree> factory) {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().threadId();
+
+        long bytes0 = threads.getThreadAllocatedBytes(thread);
+        long time0 = System.nanoTime();
+        Tree tree = factory.get();
+        for (int i = 0; i < paths.size(); i++) {
+            tree.put(paths.get(i), i);
+        }
+        long time1 = System.nanoTime();
+        long bytes1 = threads.getThreadAllocatedBytes(thread);
+        for (int pass = 0; pass < GET_PASSES; pass++) {
+            for (String path : paths) {
+                sink += tree.get(path);
+            }
+        }
+        long time2 = System.nanoTime();
+        long bytes2 = threads.getThreadAllocatedBytes(thread);
+        for (String path : paths) {
+            sink += tree.remove(path);
+        }
+        long time3 = System.nanoTime();
+        long bytes3 = threads.getThreadAllocatedBytes(thread);
+
+        System.out.printf("%s  put %6.1f ms %7d KB | get %6.1f ms %7d KB | remove %6.1f ms %7d KB%n", name,
+                (time1 - time0) / 1e6, (bytes1 - bytes0) / 1024,
+                (time2 - time1) / 1e6, (bytes2 - bytes1) / 1024,
+                (time3 - time2) / 1e6, (bytes3 - bytes2) / 1024);
+    }
+
+    /**
+     * The path handling FileTree had before the in-place cursor: every key is split with
+     * {@code key.split("[\\\\/]")} into a list of components, and each component is looked up
+     * in the HashMap of its directory.
+     */
+    static class RegexSplitTree<V> {
+        private static class Node<V> {
+            final Map<String, Node<V>> children;    // null for a file
+            V value;
+
+            Node(boolean isDir) {
+                this.children = isDir ? new HashMap<>() : null;
+            }
+        }
+
+        private final Node<V> root = new Node<>(true);
+
+        V get(String key) {
+            List<String> names = split(key);
+            String fileName = names.remove(names.size() - 1);
+            Node<V> dir = root;
+            for (String name : names) {
+                Node<V> node = dir.children.get(name);
+                if (node == null || node.children == null) {
+                    return null;
+                }
+                dir = node;
+            }
+            Node<V> node = dir.children.get(fileName);
+            return node == null || node.children != null ? null : node.value;
+        }
+
+        V put(String key, V value) {
+            List<String> names = split(key);
+            String fileName = names.remove(names.size() - 1);
+            Node<V> dir = root;
+            for (String name : names) {
+                Node<V> node = dir.children.get(name);
+                if (node == null) {
+                    node = new Node<>(true);
+                    dir.children.put(name, node);
+                } else if (node.children == null) {
+                    throw new IllegalStateException("Path component conflicts with existing file: " + name);
+                }
+                dir = node;
+            }
+            Node<V> node = dir.children.get(fileName);
+            if (node == null) {
+                node = new Node<>(false);
+                dir.children.put(fileName, node);
+            } else if (node.children != null) {
+                throw new IllegalStateException("Cannot put value to a directory path: " + key);
+            }
+            V old = node.value;
+            node.value = value;
+            return old;
+        }
+
+        V remove(String key) {
+            return remove(root, split(key).iterator());
+        }
+
+        private V remove(Node<V> dir, Iterator<String> names) {
+            String name = names.next();
+            Node<V> next = dir.children.get(name);
+            if (next == null) {
+                return null;
+            }
+            if (!names.hasNext()) {
+                if (next.children != null) {
+                    return null;
+                }
+                dir.children.remove(name);
+                return next.value;
+            }
+            if (next.children == null) {
+                return null;
+            }
+            V value = remove(next, names);
+            if (next.children.isEmpty()) {
+                dir.children.remove(name);
+            }
+            return value;
+        }
+
+        private static List<String> split(String key) {
+            if (key.isEmpty() || key.startsWith("/") || key.startsWith("\\")) {
+                throw new IllegalArgumentException("Invalid path: " + key);
+            }
+            List<String> result = new ArrayList<>();
+            for (String part : key.split("[\\\\/]")) {
+                if (!part.isEmpty()) {
+                    result.add(part);
+                }
+            }
+            if (result.isEmpty()) {
+                throw new IllegalArgumentException("Invalid path after splitting: " + key);
+            }
+            return result;
+        }
+    }
+}